@@ -0,0 +1,185 @@
+package com.swrve.ratelimitedlogger.processor;
+
+import com.swrve.ratelimitedlogger.LogPattern;
+
+import edu.umd.cs.findbugs.annotations.Nullable;
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.Filer;
+import javax.annotation.processing.Messager;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Generates a class of static LogWithPatternAndLevel handles for the @LogPattern constants in each class, so that
+ * logging with them skips looking up the pattern and level.  For a class Foo, the generated class is FooLogHandles,
+ * in the same package; for a nested class Foo.Bar, it's Foo_BarLogHandles.  Each handle has the same name as its
+ * constant.
+ *
+ * The constants, and the RateLimitedLog fields they are logged to, are validated at build time.
+ */
+@SupportedAnnotationTypes("com.swrve.ratelimitedlogger.LogPattern")
+public class LogPatternProcessor extends AbstractProcessor {
+    private static final String RATE_LIMITED_LOG = "com.swrve.ratelimitedlogger.RateLimitedLog";
+
+    /**
+     * Matches RateLimitedLog.MAX_PATTERN_LENGTH; patterns which differ only after this many characters share a
+     * rate limit.
+     */
+    private static final int MAX_PATTERN_LENGTH = 8192;
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        Map<TypeElement, List<VariableElement>> patternsByClass = new LinkedHashMap<>();
+        for (Element element : roundEnv.getElementsAnnotatedWith(LogPattern.class)) {
+            if (element.getKind() == ElementKind.FIELD) {
+                patternsByClass.computeIfAbsent((TypeElement) element.getEnclosingElement(), k -> new ArrayList<>())
+                        .add((VariableElement) element);
+            }
+        }
+        for (Map.Entry<TypeElement, List<VariableElement>> entry : patternsByClass.entrySet()) {
+            generateHandles(entry.getKey(), entry.getValue());
+        }
+        return true;
+    }
+
+    private void generateHandles(TypeElement type, List<VariableElement> patterns) {
+        List<String> handles = new ArrayList<>();
+        for (VariableElement pattern : patterns) {
+            String logField = findLogField(type, pattern);
+            if (isValidPattern(pattern) && logField != null) {
+                LogPattern annotation = pattern.getAnnotation(LogPattern.class);
+                handles.add(String.format("    static final LogWithPatternAndLevel %s = %s.%s.handle(%s.%s, Level.%s);",
+                        pattern.getSimpleName(), type.getQualifiedName(), logField,
+                        type.getQualifiedName(), pattern.getSimpleName(), annotation.value().name()));
+            }
+        }
+        if (handles.size() != patterns.size()) {
+            return;     // errors have been reported
+        }
+
+        PackageElement pkg = processingEnv.getElementUtils().getPackageOf(type);
+        String packageName = pkg.isUnnamed() ? "" : pkg.getQualifiedName().toString();
+        String className = handlesClassName(type);
+        Filer filer = processingEnv.getFiler();
+        try {
+            JavaFileObject file = filer.createSourceFile(
+                    packageName.isEmpty() ? className : packageName + "." + className, type);
+            try (Writer writer = file.openWriter(); PrintWriter out = new PrintWriter(writer)) {
+                if (!packageName.isEmpty()) {
+                    out.println("package " + packageName + ";");
+                    out.println();
+                }
+                out.println("import com.swrve.ratelimitedlogger.Level;");
+                out.println("import com.swrve.ratelimitedlogger.LogWithPatternAndLevel;");
+                out.println();
+                out.println("/**");
+                out.println(" * Rate-limited log handles for the @LogPattern constants in "
+                        + type.getQualifiedName() + ".");
+                out.println(" * Generated by " + getClass().getName() + "; do not edit.");
+                out.println(" */");
+                out.println("final class " + className + " {");
+                for (String handle : handles) {
+                    out.println(handle);
+                }
+                out.println();
+                out.println("    private " + className + "() {");
+                out.println("    }");
+                out.println("}");
+            }
+        } catch (IOException e) {
+            messager().printMessage(Diagnostic.Kind.ERROR, "failed to generate " + className + ": " + e, type);
+        }
+    }
+
+    private boolean isValidPattern(VariableElement pattern) {
+        Set<Modifier> modifiers = pattern.getModifiers();
+        if (!modifiers.contains(Modifier.STATIC) || !modifiers.contains(Modifier.FINAL)
+                || modifiers.contains(Modifier.PRIVATE)) {
+            messager().printMessage(Diagnostic.Kind.ERROR,
+                    "@LogPattern fields must be static, final and non-private", pattern);
+            return false;
+        }
+        Object value = pattern.getConstantValue();
+        if (!(value instanceof String)) {
+            messager().printMessage(Diagnostic.Kind.ERROR,
+                    "@LogPattern fields must be compile-time constant Strings", pattern);
+            return false;
+        }
+        String string = (String) value;
+        if (string.isEmpty()) {
+            messager().printMessage(Diagnostic.Kind.ERROR, "@LogPattern patterns must not be empty", pattern);
+            return false;
+        }
+        if (string.length() > MAX_PATTERN_LENGTH) {
+            messager().printMessage(Diagnostic.Kind.ERROR,
+                    "@LogPattern patterns must be at most " + MAX_PATTERN_LENGTH + " characters long", pattern);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return the name of the RateLimitedLog field in @param type that @param pattern should be logged to, or
+     * null if there isn't exactly one suitable field.
+     */
+    private @Nullable String findLogField(TypeElement type, VariableElement pattern) {
+        String wanted = pattern.getAnnotation(LogPattern.class).log();
+        List<String> candidates = new ArrayList<>();
+        for (VariableElement field : ElementFilter.fieldsIn(type.getEnclosedElements())) {
+            if (!field.asType().toString().equals(RATE_LIMITED_LOG)
+                    || (!wanted.isEmpty() && !field.getSimpleName().contentEquals(wanted))) {
+                continue;
+            }
+            if (!field.getModifiers().contains(Modifier.STATIC) || field.getModifiers().contains(Modifier.PRIVATE)) {
+                messager().printMessage(Diagnostic.Kind.ERROR,
+                        "RateLimitedLog field " + field.getSimpleName() + " must be static and non-private", pattern);
+                return null;
+            }
+            candidates.add(field.getSimpleName().toString());
+        }
+        if (candidates.size() == 1) {
+            return candidates.get(0);
+        }
+        messager().printMessage(Diagnostic.Kind.ERROR, candidates.isEmpty()
+                ? "no RateLimitedLog field " + (wanted.isEmpty() ? "" : "named " + wanted + " ") + "found in " + type
+                : "more than one RateLimitedLog field in " + type + "; specify one using @LogPattern(log = ...)",
+                pattern);
+        return null;
+    }
+
+    private static String handlesClassName(TypeElement type) {
+        StringBuilder name = new StringBuilder(type.getSimpleName());
+        for (Element outer = type.getEnclosingElement(); outer.getKind() != ElementKind.PACKAGE;
+             outer = outer.getEnclosingElement()) {
+            name.insert(0, outer.getSimpleName() + "_");
+        }
+        return name.append("LogHandles").toString();
+    }
+
+    private Messager messager() {
+        return processingEnv.getMessager();
+    }
+}
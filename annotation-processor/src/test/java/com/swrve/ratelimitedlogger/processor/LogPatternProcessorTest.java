@@ -0,0 +1,110 @@
+package com.swrve.ratelimitedlogger.processor;
+
+import org.junit.Test;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.ToolProvider;
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+public class LogPatternProcessorTest {
+
+    private final File output;
+
+    public LogPatternProcessorTest() throws IOException {
+        output = Files.createTempDirectory("LogPatternProcessorTest").toFile();
+    }
+
+    @Test
+    public void generatesHandles() throws IOException {
+        DiagnosticCollector<JavaFileObject> diagnostics = compile("example.Foo",
+                "package example;\n" +
+                "import com.swrve.ratelimitedlogger.*;\n" +
+                "import java.time.Duration;\n" +
+                "class Foo {\n" +
+                "    static final RateLimitedLog LOG = RateLimitedLog\n" +
+                "            .withRateLimit(org.slf4j.LoggerFactory.getLogger(Foo.class))\n" +
+                "            .maxRate(5).every(Duration.ofSeconds(10)).build();\n" +
+                "    @LogPattern(Level.WARN)\n" +
+                "    static final String FAILED = \"failed for user {}\";\n" +
+                "    void foo() {\n" +
+                "        FooLogHandles.FAILED.log(\"bob\");\n" +
+                "    }\n" +
+                "}\n");
+        assertThat(diagnostics.getDiagnostics().toString(), diagnostics.getDiagnostics().isEmpty(), equalTo(true));
+
+        String generated = new String(Files.readAllBytes(
+                new File(output, "example/FooLogHandles.java").toPath()), StandardCharsets.UTF_8);
+        assertThat(generated, containsString(
+                "static final LogWithPatternAndLevel FAILED = "
+                        + "example.Foo.LOG.handle(example.Foo.FAILED, Level.WARN);"));
+    }
+
+    @Test
+    public void rejectsNonConstantPatterns() throws IOException {
+        DiagnosticCollector<JavaFileObject> diagnostics = compile("example.Bar",
+                "package example;\n" +
+                "import com.swrve.ratelimitedlogger.*;\n" +
+                "class Bar {\n" +
+                "    static RateLimitedLog LOG;\n" +
+                "    @LogPattern(Level.INFO)\n" +
+                "    static final String NOT_CONSTANT = String.valueOf(1);\n" +
+                "}\n");
+        assertError(diagnostics, "@LogPattern fields must be compile-time constant Strings");
+    }
+
+    @Test
+    public void requiresOneLog() throws IOException {
+        DiagnosticCollector<JavaFileObject> diagnostics = compile("example.Baz",
+                "package example;\n" +
+                "import com.swrve.ratelimitedlogger.*;\n" +
+                "class Baz {\n" +
+                "    static RateLimitedLog LOG1;\n" +
+                "    static RateLimitedLog LOG2;\n" +
+                "    @LogPattern(Level.INFO)\n" +
+                "    static final String PATTERN = \"pattern\";\n" +
+                "}\n");
+        assertError(diagnostics, "more than one RateLimitedLog field");
+    }
+
+    private DiagnosticCollector<JavaFileObject> compile(String className, String source) throws IOException {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+        JavaFileObject file = new SimpleJavaFileObject(
+                URI.create("string:///" + className.replace('.', '/') + ".java"), JavaFileObject.Kind.SOURCE) {
+            @Override
+            public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+                return source;
+            }
+        };
+        JavaCompiler.CompilationTask task = compiler.getTask(null, null, diagnostics,
+                Arrays.asList("-classpath", System.getProperty("java.class.path"),
+                        "-d", output.getPath(), "-s", output.getPath()),
+                null, Collections.singletonList(file));
+        task.setProcessors(Collections.singletonList(new LogPatternProcessor()));
+        task.call();
+        return diagnostics;
+    }
+
+    private static void assertError(DiagnosticCollector<JavaFileObject> diagnostics, String expected) {
+        for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics.getDiagnostics()) {
+            if (diagnostic.getKind() == Diagnostic.Kind.ERROR && diagnostic.getMessage(null).contains(expected)) {
+                return;
+            }
+        }
+        throw new AssertionError("expected error '" + expected + "' in " + diagnostics.getDiagnostics());
+    }
+}
@@ -0,0 +1,73 @@
+package com.swrve.ratelimitedlogger.benchmarks;
+
+import com.swrve.ratelimitedlogger.RateLimitedLog;
+import org.openjdk.jmh.annotations.*;
+
+import java.lang.reflect.Proxy;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+
+/**
+ * Accuracy versus memory of RateLimitedLog.withCountMinSketch().  Each invocation logs every one of
+ * distinctMessages messages once, through a new RateLimitedLog with a limit of 1 per period, so with exact
+ * counting every message would be let through.  The "falselySuppressed" counter reports how many were suppressed
+ * instead, because of collisions in a sketch of 4 rows of the given width, which uses 16 * width bytes.
+ */
+@Warmup(iterations = 2)
+@Measurement(iterations = 10)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+public class BenchCountMinSketch {
+    private static final int DEPTH = 4;
+
+    @Param({"1024", "4096", "16384", "65536"})
+    public int width;
+
+    @Param({"10000", "100000"})
+    public int distinctMessages;
+
+    private String[] messages;
+
+    private RateLimitedLog rateLimitedLog;
+
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class Counters {
+        public long falselySuppressed;
+    }
+
+    @Setup
+    public void prepare() {
+        messages = new String[distinctMessages];
+        for (int i = 0; i < distinctMessages; i++) {
+            messages[i] = "failed for user " + i;
+        }
+    }
+
+    @Benchmark
+    public void testMethod(Counters counters) {
+        long[] emitted = new long[1];
+        Logger logger = (Logger) Proxy.newProxyInstance(Logger.class.getClassLoader(), new Class<?>[]{Logger.class},
+                (proxy, method, args) -> {
+                    if (method.getName().equals("info")) {
+                        emitted[0]++;
+                    }
+                    return method.getReturnType() == boolean.class ? Boolean.TRUE : null;
+                });
+        rateLimitedLog = RateLimitedLog.withRateLimit(logger)
+                .maxRate(1).every(Duration.ofHours(1))
+                .withCountMinSketch(width, DEPTH)
+                .build();
+        for (String message : messages) {
+            rateLimitedLog.info(message);
+        }
+        counters.falselySuppressed += distinctMessages - emitted[0];
+    }
+
+    @TearDown(Level.Invocation)
+    public void close() {
+        rateLimitedLog.close();
+    }
+}
@@ -0,0 +1,45 @@
+package com.swrve.ratelimitedlogger.benchmarks;
+
+import com.swrve.ratelimitedlogger.RateLimitedLog;
+import org.openjdk.jmh.annotations.*;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Logging while 100k patterns, with a mix of periods, are registered for periodic resets.  The resets run on
+ * the Registry's timing wheel, spread out across ticks, so they should not show up as spikes in the tail
+ * latencies of the logging threads.
+ */
+@Warmup(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS )
+@Measurement(iterations = 10, time = 1, timeUnit = TimeUnit.SECONDS )
+@State(Scope.Benchmark)
+public class BenchManyPatterns {
+    private static final Logger logger = LoggerFactory.getLogger(BenchManyPatterns.class);
+    private static final int LOGS = 100;
+    private static final int PATTERNS_PER_LOG = 1000;   // RateLimitedLog's limit before it evicts patterns
+
+    private final RateLimitedLog[] rateLimitedLogs = new RateLimitedLog[LOGS];
+
+    @Setup
+    public void prepare() {
+        for (int i = 0; i < LOGS; i++) {
+            // periods from 100ms to 1s, so that plenty of resets happen during each iteration
+            rateLimitedLogs[i] = RateLimitedLog.withRateLimit(logger)
+                    .maxRate(1).every(Duration.ofMillis(100 + 100 * (i % 10)))
+                    .build();
+            for (int j = 0; j < PATTERNS_PER_LOG - 1; j++) {
+                rateLimitedLogs[i].info("pattern_" + i + "_" + j);
+            }
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public void testMethod() {
+        rateLimitedLogs[0].info("test");
+    }
+}
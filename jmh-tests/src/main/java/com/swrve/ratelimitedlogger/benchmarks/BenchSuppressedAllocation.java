@@ -0,0 +1,68 @@
+package com.swrve.ratelimitedlogger.benchmarks;
+
+import com.swrve.ratelimitedlogger.RateLimitedLog;
+import org.openjdk.jmh.annotations.*;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Suppressed logging with 0, 1, 2 and 3 arguments.  Run with "-prof gc": the fixed-arity
+ * forms should report a gc.alloc.rate.norm of ~0 B/op, while the varargs form allocates
+ * its argument array.
+ */
+@Warmup(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS )
+@Measurement(iterations = 10, time = 1, timeUnit = TimeUnit.SECONDS )
+@State(Scope.Benchmark)
+public class BenchSuppressedAllocation {
+    private static final Logger logger = LoggerFactory.getLogger(BenchSuppressedAllocation.class);
+    private static final RateLimitedLog rateLimitedLog = RateLimitedLog.withRateLimit(logger)
+                   .maxRate(1).every(Duration.ofSeconds(1000))
+                   .build();
+
+    // pre-allocated, so that boxing doesn't count against the logger
+    private final Object arg1 = "one";
+    private final Object arg2 = "two";
+    private final Object arg3 = "three";
+
+    @Setup
+    public void prepare() {
+        // exceed the rate limit for each pattern, so that only the suppressed path is measured
+        for (int i = 0; i < 2; i++) {
+            rateLimitedLog.info("test0");
+            rateLimitedLog.info("test1 {}", arg1);
+            rateLimitedLog.info("test2 {} {}", arg1, arg2);
+            rateLimitedLog.info("test3 {} {} {}", arg1, arg2, arg3);
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public void noArgs() {
+        rateLimitedLog.info("test0");
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public void oneArg() {
+        rateLimitedLog.info("test1 {}", arg1);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public void twoArgs() {
+        rateLimitedLog.info("test2 {} {}", arg1, arg2);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public void threeArgsVarargs() {
+        rateLimitedLog.info("test3 {} {} {}", arg1, arg2, arg3);
+    }
+}
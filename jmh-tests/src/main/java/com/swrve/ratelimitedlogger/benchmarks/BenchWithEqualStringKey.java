@@ -0,0 +1,45 @@
+package com.swrve.ratelimitedlogger.benchmarks;
+
+import com.swrve.ratelimitedlogger.RateLimitedLog;
+import org.openjdk.jmh.annotations.*;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * As BenchWithStringKey, but passing a different String instance, with the same contents, on every call, so
+ * that the pattern can't be found by identity and must be hashed and compared.  Compare with
+ * BenchWithStringKey, where the pattern is a literal.
+ */
+@Warmup(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS )
+@Measurement(iterations = 10, time = 1, timeUnit = TimeUnit.SECONDS )
+@State(Scope.Benchmark)
+public class BenchWithEqualStringKey {
+    private static final Logger logger = LoggerFactory.getLogger(BenchWithEqualStringKey.class);
+    private static final RateLimitedLog rateLimitedLog = RateLimitedLog.withRateLimit(logger)
+                   .maxRate(1).every(Duration.ofSeconds(1000))
+                   .build();
+
+    private final String[] keys = new String[16];
+    private int next = 0;
+
+    @Setup
+    public void prepare() {
+        // simulate a bunch of unimportant log lines (to fill out the registry)
+        for (int i = 0; i < 100; i++) {
+            rateLimitedLog.info("unused_" + i);
+        }
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = new String("test");
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public void testMethod() {
+        rateLimitedLog.info(keys[next++ & (keys.length - 1)]);
+    }
+}
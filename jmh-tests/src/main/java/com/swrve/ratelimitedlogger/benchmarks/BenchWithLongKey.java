@@ -0,0 +1,54 @@
+package com.swrve.ratelimitedlogger.benchmarks;
+
+import com.swrve.ratelimitedlogger.RateLimitedLog;
+import org.openjdk.jmh.annotations.*;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Suppressed logging of messages longer than the 8192 characters used as the key.  A different String instance
+ * is passed on each call, as if the message had been interpolated, and there are more of them than the identity
+ * table has slots, so the pattern can't be found by identity.  Run with "-prof gc": looking up the key should not
+ * allocate.
+ */
+@Warmup(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS )
+@Measurement(iterations = 10, time = 1, timeUnit = TimeUnit.SECONDS )
+@State(Scope.Benchmark)
+public class BenchWithLongKey {
+    private static final Logger logger = LoggerFactory.getLogger(BenchWithLongKey.class);
+    private static final RateLimitedLog rateLimitedLog = RateLimitedLog.withRateLimit(logger)
+                   .maxRate(1).every(Duration.ofSeconds(1000))
+                   .build();
+
+    @Param({"10240", "102400"})
+    public int messageLength;
+
+    private final String[] messages = new String[1024];    // must be a power of 2
+    private int next = 0;
+
+    @Setup
+    public void prepare() {
+        StringBuilder s = new StringBuilder(messageLength);
+        while (s.length() < messageLength) {
+            s.append("this message is far too long ");
+        }
+        s.setLength(messageLength);
+        String message = s.toString();
+        for (int i = 0; i < messages.length; i++) {
+            messages[i] = new String(message);     // a distinct instance, sharing the same characters
+        }
+        // exceed the rate limit, so that only the suppressed path is measured
+        rateLimitedLog.info(messages[0]);
+        rateLimitedLog.info(messages[1]);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public void testMethod() {
+        rateLimitedLog.info(messages[next++ & (messages.length - 1)]);
+    }
+}
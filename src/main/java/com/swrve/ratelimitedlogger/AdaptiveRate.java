@@ -0,0 +1,43 @@
+package com.swrve.ratelimitedlogger;
+
+import net.jcip.annotations.ThreadSafe;
+
+/**
+ * Tracks how long calls into the wrapped Logger take, and scales down the rate limit while they're slower than a
+ * target latency -- for example, when an appender is blocked on a slow disk or a full queue -- so that fewer
+ * request threads are held up by logging.  The limit recovers as the latency does.
+ *
+ * Thread-safe.  The latency is only measured for logs which are let through, so the suppressed path is unaffected.
+ */
+@ThreadSafe
+final class AdaptiveRate {
+    private final long targetLatencyNanos;
+
+    /**
+     * An exponentially-weighted moving average of the latency, with a weight of 1/8 for each new sample.  Updates
+     * are not atomic, so concurrent samples may occasionally be lost; this is fine for a heuristic, and avoids a
+     * CAS loop.
+     */
+    private volatile long averageLatencyNanos = 0L; // mutable
+
+    AdaptiveRate(long targetLatencyNanos) {
+        this.targetLatencyNanos = targetLatencyNanos;
+    }
+
+    void recordLatency(long latencyNanos) {
+        long average = averageLatencyNanos;
+        averageLatencyNanos = (average == 0L) ? latencyNanos : average + ((latencyNanos - average) >> 3);
+    }
+
+    /**
+     * @return the rate to use in place of @param maxRate , scaled down in proportion to how far the average latency
+     * exceeds the target, but never below 1.
+     */
+    int effectiveRate(int maxRate) {
+        long average = averageLatencyNanos;
+        if (average <= targetLatencyNanos) {
+            return maxRate;
+        }
+        return (int) Math.max(1L, maxRate * targetLatencyNanos / average);
+    }
+}
@@ -0,0 +1,438 @@
+package com.swrve.ratelimitedlogger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.slf4j.MDC;
+import org.slf4j.Marker;
+
+import edu.umd.cs.findbugs.annotations.Nullable;
+import net.jcip.annotations.GuardedBy;
+import net.jcip.annotations.ThreadSafe;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Emits the logs which are let through by one or more RateLimitedLogs asynchronously, on a dedicated thread,
+ * so that a slow appender does not hold up the threads which are logging.  Pass it to
+ * RateLimitedLogBuilder.withAsyncEmitter(); one AsyncEmitter can be shared by many RateLimitedLogs.
+ *
+ * Logs are published to a bounded, lock-free, multi-producer single-consumer ring buffer, and drained by the
+ * emitter's thread into the wrapped Logger.  If the ring buffer is full, the OverflowPolicy decides what happens;
+ * logs which are discarded are counted as suppressed, and included in the usual "suppressed" summaries.
+ *
+ * Summaries of suppressed logs are still logged directly, so they may be output before logs which were let
+ * through shortly beforehand.
+ *
+ * Each log is emitted with a copy of the MDC of the thread which logged it.  Anything else about that thread,
+ * such as its name, is not preserved: the logs are output from the emitter's thread.
+ *
+ * The emitter's thread is a daemon, so it doesn't prevent the JVM from exiting; instead, the logs still waiting
+ * to be emitted are drained when their RateLimitedLog is flushed, which happens at shutdown, or closed.  Closing
+ * a RateLimitedLog also stops the emitter's thread, which is started again if another RateLimitedLog sharing the
+ * emitter logs afterwards.  The thread parks while there is nothing to emit, so an idle emitter costs nothing.
+ *
+ * Thread-safe.
+ */
+@ThreadSafe
+public final class AsyncEmitter {
+    private static final org.slf4j.Logger logger = LoggerFactory.getLogger(AsyncEmitter.class);
+    private static final AtomicLong EMITTER_COUNT = new AtomicLong(0);
+
+    private static final long FULL_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+    /**
+     * What to do with a log which has been let through, but which can't be published because the ring buffer
+     * is full.
+     */
+    public enum OverflowPolicy {
+        /**
+         * Discard the log, counting it as suppressed.
+         */
+        DISCARD,
+
+        /**
+         * Wait for the emitter's thread to make room.
+         */
+        BLOCK,
+
+        /**
+         * Log synchronously, on the calling thread.
+         */
+        CALLER_RUNS
+    }
+
+    private final OverflowPolicy overflowPolicy;
+    private final String threadName;
+    private final int mask;
+
+    /**
+     * The ring buffer.  Each slot's sequence number says whose turn it is: if it's equal to a producer's position,
+     * the slot is free for that producer; if it's one more, the slot holds an event for the consumer.
+     */
+    private final Event[] events;
+    private final AtomicLongArray sequences;
+
+    /**
+     * The next position for producers to claim.
+     */
+    private final AtomicLong tail = new AtomicLong(0L); // mutable
+
+    /**
+     * The next position for the consumer to read.
+     */
+    @GuardedBy("this")
+    private long head = 0L; // mutable
+
+    /**
+     * Set while the consumer is parked, waiting for events, so that producers know to wake it; and initially, or
+     * once it has been stopped by close(), so that the next producer starts it.
+     */
+    private volatile boolean consumerIdle = true; // mutable
+
+    /**
+     * The consumer thread, started lazily, and cleared by close(), which tells it to stop.  Only set while holding
+     * the lock on this object.
+     */
+    private volatile @Nullable Thread consumer = null; // mutable
+
+    /**
+     * Create an emitter with room for @param capacity logs, which must be a power of 2, waiting to be emitted,
+     * handling logs which don't fit according to @param overflowPolicy .
+     */
+    public AsyncEmitter(int capacity, OverflowPolicy overflowPolicy) {
+        if (capacity <= 0 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("capacity must be a power of 2");
+        }
+        this.overflowPolicy = overflowPolicy;
+        this.threadName = String.format(Locale.ROOT, "RateLimitedLogEmitter-%d", EMITTER_COUNT.getAndIncrement());
+        this.mask = capacity - 1;
+        this.events = new Event[capacity];
+        this.sequences = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++) {
+            events[i] = new Event();
+            sequences.set(i, i);
+        }
+    }
+
+    /**
+     * The emitting APIs, matching Level's logging APIs.
+     *
+     * @return false if the log was discarded, because the ring buffer was full.
+     */
+    boolean log(Level level, Logger logger, String msg) {
+        return publish(level, logger, msg, null, Event.NO_ARGS, null, null, null, null);
+    }
+
+    boolean log(Level level, Logger logger, String msg, Object arg) {
+        return publish(level, logger, msg, null, Event.ONE_ARG, arg, null, null, null);
+    }
+
+    boolean log(Level level, Logger logger, String msg, Object arg1, Object arg2) {
+        return publish(level, logger, msg, null, Event.TWO_ARGS, arg1, arg2, null, null);
+    }
+
+    boolean log(Level level, Logger logger, String msg, Object... args) {
+        return publish(level, logger, msg, null, Event.VARARGS, null, null, args, null);
+    }
+
+    boolean log(Level level, Logger logger, String msg, Throwable t) {
+        return publish(level, logger, msg, null, Event.THROWABLE, null, null, null, t);
+    }
+
+    boolean log(Level level, Logger logger, String msg, Marker marker) {
+        return publish(level, logger, msg, marker, Event.NO_ARGS, null, null, null, null);
+    }
+
+    boolean log(Level level, Logger logger, String msg, Marker marker, Object arg) {
+        return publish(level, logger, msg, marker, Event.ONE_ARG, arg, null, null, null);
+    }
+
+    boolean log(Level level, Logger logger, String msg, Marker marker, Object arg1, Object arg2) {
+        return publish(level, logger, msg, marker, Event.TWO_ARGS, arg1, arg2, null, null);
+    }
+
+    boolean log(Level level, Logger logger, String msg, Marker marker, Object... args) {
+        return publish(level, logger, msg, marker, Event.VARARGS, null, null, args, null);
+    }
+
+    boolean log(Level level, Logger logger, String msg, Marker marker, Throwable t) {
+        return publish(level, logger, msg, marker, Event.THROWABLE, null, null, null, t);
+    }
+
+    private boolean publish(Level level, Logger logger, String msg, @Nullable Marker marker, int shape,
+                            @Nullable Object arg1, @Nullable Object arg2, @Nullable Object[] args,
+                            @Nullable Throwable t) {
+        long position = claim();
+        if (position < 0) {
+            if (overflowPolicy == OverflowPolicy.CALLER_RUNS) {
+                Event.emit(level, logger, msg, marker, shape, arg1, arg2, args, t);
+                return true;
+            }
+            return false;
+        }
+        int index = (int) (position & mask);
+        events[index].set(level, logger, msg, marker, shape, arg1, arg2, args, t, MDC.getCopyOfContextMap());
+        sequences.set(index, position + 1);     // hand the slot over to the consumer
+        if (consumerIdle) {
+            wakeConsumer();
+        }
+        return true;
+    }
+
+    /**
+     * @return the position of a free slot, now owned by the caller; or -1 if the ring buffer is full, unless the
+     * OverflowPolicy is BLOCK, in which case wait until there's room.
+     */
+    private long claim() {
+        long position = tail.get();
+        while (true) {
+            long sequence = sequences.get((int) (position & mask));
+            if (sequence == position) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    return position;
+                }
+                position = tail.get();
+            } else if (sequence < position) {
+                // the consumer hasn't yet emitted the event a full lap behind us
+                if (overflowPolicy != OverflowPolicy.BLOCK) {
+                    return -1L;
+                }
+                startConsumer();
+                LockSupport.parkNanos(this, FULL_PARK_NANOS);
+                position = tail.get();
+            } else {
+                position = tail.get();     // another producer claimed this slot; try the next
+            }
+        }
+    }
+
+    private void wakeConsumer() {
+        Thread thread = startConsumer();
+        LockSupport.unpark(thread);
+    }
+
+    /**
+     * @return the consumer thread, starting it if it hasn't been started, or has died.
+     */
+    private Thread startConsumer() {
+        Thread thread = consumer;
+        if (thread != null && thread.isAlive()) {
+            return thread;
+        }
+        synchronized (this) {
+            thread = consumer;
+            if (thread == null || !thread.isAlive()) {
+                thread = new Thread(this::run, threadName);
+                thread.setDaemon(true);
+                consumer = thread;
+                thread.start();
+            }
+            return thread;
+        }
+    }
+
+    private void run() {
+        Thread self = Thread.currentThread();
+        consumerIdle = false;
+        while (consumer == self) {
+            if (!drain()) {
+                consumerIdle = true;
+                // check again, in case a producer published before seeing the flag; it unparks us after that
+                if (!drain() && consumer == self) {
+                    LockSupport.park(this);
+                }
+                consumerIdle = false;
+            }
+        }
+    }
+
+    /**
+     * Emit the logs which are waiting, and stop the emitter's thread, waiting for it to finish.  If any more logs
+     * are published afterwards, such as by another RateLimitedLog sharing this emitter, the thread is started
+     * again.  Called when a RateLimitedLog using this emitter is closed.
+     *
+     * The thread is woken with LockSupport.unpark(), rather than interrupted, since interrupting it while it is in
+     * an appender would close any interruptible channel the appender is writing to.
+     */
+    public void close() {
+        Thread thread;
+        synchronized (this) {
+            thread = consumer;
+            consumer = null;
+        }
+        if (thread != null) {
+            LockSupport.unpark(thread);
+            boolean interrupted = false;
+            while (thread.isAlive()) {
+                try {
+                    thread.join();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        // only now that the old thread has exited, so that it can't clear the flag again
+        consumerIdle = true;
+        drain();
+    }
+
+    /**
+     * Emit, on the calling thread, all of the logs which have been published so far.  Called when flushing, since
+     * the emitter's thread may not get the chance to before the JVM exits.
+     */
+    void flush() {
+        drain();
+    }
+
+    /**
+     * Emit all of the events which are ready, each with its logging thread's MDC, and then restore the calling
+     * thread's MDC.
+     *
+     * @return true if any were emitted.
+     */
+    private synchronized boolean drain() {
+        @Nullable Map<String, String> callerContext = null;
+        boolean emitted = false;
+        while (true) {
+            int index = (int) (head & mask);
+            if (sequences.get(index) != head + 1) {
+                break;
+            }
+            if (!emitted) {
+                callerContext = MDC.getCopyOfContextMap();
+            }
+            Event event = events[index];
+            try {
+                event.emit();
+            } catch (Throwable t) {
+                // even an Error, so that the only consumer doesn't die, leaving producers to discard or block
+                warnFailed(t);
+            } finally {
+                event.clear();
+                sequences.set(index, head + events.length);     // hand the slot back to the producers, a lap later
+                head++;
+            }
+            emitted = true;
+        }
+        if (emitted) {
+            setContext(callerContext);
+        }
+        return emitted;
+    }
+
+    private static void warnFailed(Throwable t) {
+        try {
+            logger.warn("failed to emit log: " + t, t);
+        } catch (Throwable ignored) {
+            // the appender is probably what failed in the first place
+        }
+    }
+
+    private static void setContext(@Nullable Map<String, String> context) {
+        if (context == null) {
+            MDC.clear();
+        } else {
+            MDC.setContextMap(context);
+        }
+    }
+
+    /**
+     * A log waiting to be emitted.  Each slot's Event is reused; its fields are written by the producer which
+     * claimed the slot, and read by the consumer, with the slot's sequence number ensuring they don't overlap.
+     */
+    private static final class Event {
+        static final int NO_ARGS = 0;
+        static final int ONE_ARG = 1;
+        static final int TWO_ARGS = 2;
+        static final int VARARGS = 3;
+        static final int THROWABLE = 4;
+
+        private @Nullable Level level;
+        private @Nullable Logger logger;
+        private @Nullable String msg;
+        private @Nullable Marker marker;
+        private int shape;
+        private @Nullable Object arg1;
+        private @Nullable Object arg2;
+        private @Nullable Object[] args;
+        private @Nullable Throwable t;
+        private @Nullable Map<String, String> context;
+
+        void set(Level level, Logger logger, String msg, @Nullable Marker marker, int shape,
+                 @Nullable Object arg1, @Nullable Object arg2, @Nullable Object[] args, @Nullable Throwable t,
+                 @Nullable Map<String, String> context) {
+            this.level = level;
+            this.logger = logger;
+            this.msg = msg;
+            this.marker = marker;
+            this.shape = shape;
+            this.arg1 = arg1;
+            this.arg2 = arg2;
+            this.args = args;
+            this.t = t;
+            this.context = context;
+        }
+
+        void emit() {
+            if (level != null && logger != null && msg != null) {
+                setContext(context);
+                emit(level, logger, msg, marker, shape, arg1, arg2, args, t);
+            }
+        }
+
+        /**
+         * Release references to the log's arguments, so that they can be garbage-collected.
+         */
+        void clear() {
+            set(null, null, null, null, NO_ARGS, null, null, null, null, null);
+        }
+
+        @SuppressWarnings("ConstantConditions")
+        static void emit(Level level, Logger logger, String msg, @Nullable Marker marker, int shape,
+                         @Nullable Object arg1, @Nullable Object arg2, @Nullable Object[] args,
+                         @Nullable Throwable t) {
+            if (marker == null) {
+                switch (shape) {
+                    case ONE_ARG:
+                        level.log(logger, msg, arg1);
+                        break;
+                    case TWO_ARGS:
+                        level.log(logger, msg, arg1, arg2);
+                        break;
+                    case VARARGS:
+                        level.log(logger, msg, args);
+                        break;
+                    case THROWABLE:
+                        level.log(logger, msg, t);
+                        break;
+                    default:
+                        level.log(logger, msg);
+                }
+            } else {
+                switch (shape) {
+                    case ONE_ARG:
+                        level.log(logger, msg, marker, arg1);
+                        break;
+                    case TWO_ARGS:
+                        level.log(logger, msg, marker, arg1, arg2);
+                        break;
+                    case VARARGS:
+                        level.log(logger, msg, marker, args);
+                        break;
+                    case THROWABLE:
+                        level.log(logger, msg, marker, t);
+                        break;
+                    default:
+                        level.log(logger, msg, marker);
+                }
+            }
+        }
+    }
+}
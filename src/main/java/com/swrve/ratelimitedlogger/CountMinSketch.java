@@ -0,0 +1,114 @@
+package com.swrve.ratelimitedlogger;
+
+import net.jcip.annotations.ThreadSafe;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * A fixed-size count-min sketch of how many times each message has been logged at each level in the current
+ * period, used in place of a rate limiter per pattern when there are too many patterns to track individually.
+ * Memory use is constant, however many distinct messages are logged.
+ *
+ * Each message is counted in one counter in each of depth rows, chosen by hashing it, and its count is estimated
+ * as the smallest of those counters.  Other messages hashing to the same counters can only make the estimate too
+ * high, never too low; so the rate limit is never exceeded, but a message may be suppressed early.  With a
+ * width of w, estimates exceed the true count by at most about 2.7 / w of all the logs counted in the period,
+ * except with probability about 0.37 ^ depth.  Counters are updated conservatively -- only those which are lower
+ * than the new estimate are raised -- which reduces the overestimate further.
+ *
+ * The rows' counters are all derived from one 64-bit hash of the message, rather than from String.hashCode(), so
+ * that messages with equal hash codes, which are easily found, do not collide in every row.  The bound above
+ * assumes that the 64-bit hashes of distinct messages differ; they are not designed to resist deliberately
+ * chosen collisions.  Only the first RateLimitedLog.MAX_PATTERN_LENGTH characters of a message are hashed, so
+ * messages which differ only after that are counted as one, as they would be if they were tracked as patterns.
+ *
+ * Like LogWithPatternAndLevel, this is reset once every period by the Registry.
+ */
+@ThreadSafe
+class CountMinSketch {
+    private final int width;
+    private final int depth;
+    private final int mask;
+
+    /**
+     * depth rows of width counters each.
+     */
+    private final AtomicIntegerArray counters; // mutable
+
+    /**
+     * @param width must be a power of 2.
+     */
+    CountMinSketch(int width, int depth) {
+        this.width = width;
+        this.depth = depth;
+        this.mask = width - 1;
+        this.counters = new AtomicIntegerArray(width * depth);
+    }
+
+    /**
+     * Count a log of @param message at @param level , if it's estimated to have been logged fewer than
+     * @param limit times in this period.
+     *
+     * @return false, without counting it, if it's estimated to have reached the limit already.
+     */
+    boolean tryAcquire(String message, Level level, int limit) {
+        // derive each row's hash from two, as in Kirsch and Mitzenmacher, "Less Hashing, Same Performance"; they
+        // are the two halves of one 64-bit hash, so are independent of each other
+        long hash = hash(message, level);
+        int hash1 = (int) hash;
+        int hash2 = (int) (hash >>> 32) | 1;
+
+        int estimate = Integer.MAX_VALUE;
+        for (int row = 0; row < depth; row++) {
+            estimate = Math.min(estimate, counters.get(index(row, hash1, hash2)));
+        }
+        if (estimate >= limit) {
+            return false;   // the suppressed path only reads the counters
+        }
+
+        // conservative update: raise each counter to the new estimate, if it's not already higher
+        int updated = estimate + 1;
+        for (int row = 0; row < depth; row++) {
+            int i = index(row, hash1, hash2);
+            int current = counters.get(i);
+            while (current < updated && !counters.compareAndSet(i, current, updated)) {
+                current = counters.get(i);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Start a new period.  Logs counted concurrently with a reset may be counted in either period.
+     */
+    void periodicReset() {
+        for (int i = 0; i < counters.length(); i++) {
+            if (counters.get(i) != 0) {
+                counters.set(i, 0);
+            }
+        }
+    }
+
+    private int index(int row, int hash1, int hash2) {
+        return row * width + ((hash1 + row * hash2) & mask);
+    }
+
+    /**
+     * @return a 64-bit hash of @param message and @param level : FNV-1a over the message's characters, up to
+     * RateLimitedLog.MAX_PATTERN_LENGTH of them, finished with the MurmurHash3 64-bit finalizer, to spread its bits
+     * across the low bits used as an index.
+     */
+    private static long hash(String message, Level level) {
+        long hash = 0xcbf29ce484222325L ^ level.ordinal();
+        int length = Math.min(message.length(), RateLimitedLog.MAX_PATTERN_LENGTH);
+        for (int i = 0; i < length; i++) {
+            hash ^= message.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
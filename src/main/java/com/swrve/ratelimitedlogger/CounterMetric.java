@@ -10,4 +10,26 @@ public interface CounterMetric {
      * Increment the value of the named metric @param metricName by 1.
      */
     void increment(String metricName);
+
+    /**
+     * @return a Handle which increments the metric named @param metricName by 1 each time it is invoked.
+     *
+     * This is called once per metric name, when the RateLimitedLog is built, so that the logging hot path
+     * need not build or look up metric names.  Implementations backed by a metrics library should override
+     * it to resolve their underlying counter up front; by default, it calls increment(metricName).
+     */
+    default Handle handle(String metricName) {
+        return () -> increment(metricName);
+    }
+
+    /**
+     * A pre-resolved counter metric.
+     */
+    interface Handle {
+
+        /**
+         * Increment the value of the metric by 1.
+         */
+        void increment();
+    }
 }
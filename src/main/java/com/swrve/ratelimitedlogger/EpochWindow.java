@@ -0,0 +1,60 @@
+package com.swrve.ratelimitedlogger;
+
+import net.jcip.annotations.ThreadSafe;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A fixed window, as used by the default algorithm, but reset lazily rather than by the Registry.  The count of
+ * logs let through is stored alongside the epoch of the window it belongs to, derived from the Stopwatch, and
+ * the first log after the window expires starts a new one.  Resetting is therefore O(1), and only happens for
+ * patterns which are actually logged; no background thread is needed.
+ *
+ * Both are packed into one AtomicLong: the low 32 bits of the epoch in the upper half, and the count in the
+ * lower half.  Only the low bits of the epoch are compared, so a window could be wrongly reused if a pattern
+ * went unlogged for exactly a multiple of 2^32 periods; that's an acceptable risk.
+ *
+ * Thread-safe.  A suppressed log only reads the shared state; only logs which are let through write to it.
+ */
+@ThreadSafe
+final class EpochWindow implements RateLimiter {
+    private static final long COUNT_MASK = 0xFFFFFFFFL;
+
+    private final long maxRate;
+    private final long periodNanos;
+    private final Stopwatch stopwatch;
+
+    /**
+     * The epoch of the current window, and the number of logs let through in it.
+     */
+    private final AtomicLong epochAndCount = new AtomicLong(0L); // mutable
+
+    EpochWindow(RateLimitedLogWithPattern.RateAndPeriod rateAndPeriod, Stopwatch stopwatch) {
+        this.maxRate = rateAndPeriod.maxRate;
+        this.periodNanos = rateAndPeriod.periodLength.toNanos();
+        this.stopwatch = stopwatch;
+    }
+
+    /**
+     * @return true, and count the log against the current window, if it has room; false if it's full.
+     */
+    @Override
+    public boolean tryAcquire() {
+        long epoch = stopwatch.elapsedTime(TimeUnit.NANOSECONDS) / periodNanos;
+        long epochBits = epoch << 32;
+        while (true) {
+            long current = epochAndCount.get();
+            long next;
+            if ((current & ~COUNT_MASK) != epochBits) {
+                next = epochBits | 1L;        // the window has expired; this is the first log in a new one
+            } else if ((current & COUNT_MASK) < maxRate) {
+                next = current + 1L;
+            } else {
+                return false;
+            }
+            if (epochAndCount.compareAndSet(current, next)) {
+                return true;
+            }
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package com.swrve.ratelimitedlogger;
+
+import net.jcip.annotations.ThreadSafe;
+
+/**
+ * Identifies where an exception came from, so that logs of one pattern with different exceptions can be
+ * rate-limited separately.  The fingerprint is a hash of the exception's class, and of its root cause's class and
+ * top stack frames; so the same failure, thrown again, has the same fingerprint, while a different root cause
+ * (almost always) has a different one.
+ *
+ * Computing it costs a copy of the root cause's stack trace, and hashing a few frames; the Strings hashed are class
+ * and method names, whose hashes are cached.
+ */
+@ThreadSafe
+final class ExceptionFingerprint {
+    /**
+     * Causes are followed at most this far, in case of cycles which Throwable itself does not prevent.
+     */
+    private static final int MAX_CAUSE_DEPTH = 32;
+
+    private ExceptionFingerprint() {
+    }
+
+    /**
+     * @return the fingerprint of @param t , including the top @param frames frames of its root cause.
+     */
+    static long of(Throwable t, int frames) {
+        Throwable root = rootCause(t);
+        long hash = t.getClass().getName().hashCode();
+        hash = hash * 31 + root.getClass().getName().hashCode();
+        StackTraceElement[] stackTrace = root.getStackTrace();
+        for (int i = 0; i < Math.min(frames, stackTrace.length); i++) {
+            StackTraceElement frame = stackTrace[i];
+            hash = hash * 31 + frame.getClassName().hashCode();
+            hash = hash * 31 + frame.getMethodName().hashCode();
+            hash = hash * 31 + frame.getLineNumber();
+        }
+        return mix(hash);
+    }
+
+    /**
+     * @return a description of @param t 's root cause, and where it was thrown, for summaries of suppressed logs.
+     */
+    static String describe(Throwable t) {
+        Throwable root = rootCause(t);
+        StackTraceElement[] stackTrace = root.getStackTrace();
+        return (stackTrace.length == 0) ? root.getClass().getName()
+                : root.getClass().getName() + " at " + stackTrace[0];
+    }
+
+    private static Throwable rootCause(Throwable t) {
+        Throwable root = t;
+        for (int depth = 0; depth < MAX_CAUSE_DEPTH; depth++) {
+            Throwable cause = root.getCause();
+            if (cause == null || cause == root) {
+                break;
+            }
+            root = cause;
+        }
+        return root;
+    }
+
+    /**
+     * The MurmurHash3 64-bit finalizer, so that fingerprints differing in few bits don't collide in a hash table.
+     */
+    private static long mix(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
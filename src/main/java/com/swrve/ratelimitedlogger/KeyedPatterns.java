@@ -0,0 +1,195 @@
+package com.swrve.ratelimitedlogger;
+
+import edu.umd.cs.findbugs.annotations.Nullable;
+import net.jcip.annotations.GuardedBy;
+import net.jcip.annotations.ThreadSafe;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * The patterns which stand for one pattern with each of the keys it is logged with, such as a tenant or user ID,
+ * so that each key is rate-limited separately; see RateLimitedLogWithPattern.forKey().
+ *
+ * At most maxKeys keys are tracked, and the keys of all of a RateLimitedLog's patterns count towards a limit of
+ * maxKeysPerLog, kept by its Registry.Scope, so that many keyed patterns can't add up to an unbounded number of
+ * sub-patterns.  Room for keys is allocated as they arrive.
+ *
+ * Once a pattern can't track any more keys, a new key takes the place of one which has not been used recently,
+ * chosen using the CLOCK algorithm, as in PatternCache.  If none of the few keys examined is stale, the new key
+ * spills into a shared overflow pattern instead, so a flood of distinct keys cannot grow the map.  It does still
+ * displace keys: each new key clears the "recently used" bit of up to MAX_EVICTION_SCAN keys, so after about
+ * maxKeys / MAX_EVICTION_SCAN new keys (125, for 1000 keys) the clock hand has cleared them all, and any key which
+ * has not been used again in that time is evicted.  Only keys used more often than that are safe from a flood.
+ */
+@ThreadSafe
+final class KeyedPatterns {
+    /**
+     * The most keys examined for eviction when a new key arrives, to bound the cost of a flood of new keys.
+     */
+    private static final int MAX_EVICTION_SCAN = 8;
+
+    /**
+     * The room for keys allocated when the first key arrives; it doubles as needed, up to maxKeys.
+     */
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final ConcurrentHashMap<Object, RateLimitedLogWithPattern> patterns = new ConcurrentHashMap<>();
+    private final int maxKeys;
+    private final int maxKeysPerLog;
+    private final Registry.Scope scope;
+    private final Function<Object, RateLimitedLogWithPattern> newPattern;
+    private final Supplier<RateLimitedLogWithPattern> newOverflow;
+
+    /**
+     * The pattern shared by keys which spill over, created when the first one does.
+     */
+    @GuardedBy("this")
+    private @Nullable RateLimitedLogWithPattern overflow = null; // mutable
+
+    /**
+     * The keys in use, in the order the clock hand visits them, grown as needed up to maxKeys.
+     */
+    @GuardedBy("this")
+    private Object[] keys = new Object[0]; // mutable
+
+    @GuardedBy("this")
+    private int hand = 0; // mutable
+
+    @GuardedBy("this")
+    private int used = 0; // mutable
+
+    /**
+     * Once these patterns have been unregistered, along with the pattern they stand for, finds the KeyedPatterns
+     * which have taken their place; see unregister().
+     */
+    private final AtomicReference<Supplier<KeyedPatterns>> replacement = new AtomicReference<>(); // mutable
+
+    /**
+     * @param newPattern creates the pattern for a key, and @param newOverflow the pattern shared by keys which
+     * spill over.  Keys are counted in @param scope , which holds at most @param maxKeysPerLog across all of its
+     * patterns.
+     */
+    KeyedPatterns(int maxKeys, int maxKeysPerLog, Registry.Scope scope,
+                  Function<Object, RateLimitedLogWithPattern> newPattern,
+                  Supplier<RateLimitedLogWithPattern> newOverflow) {
+        this.maxKeys = maxKeys;
+        this.maxKeysPerLog = maxKeysPerLog;
+        this.scope = scope;
+        this.newPattern = newPattern;
+        this.newOverflow = newOverflow;
+    }
+
+    /**
+     * @return the pattern for @param key , creating it if necessary, or the overflow pattern if there's no room.
+     */
+    RateLimitedLogWithPattern get(Object key) {
+        RateLimitedLogWithPattern got = patterns.get(key);
+        if (got != null) {
+            got.markRecentlyUsed();
+            return got;
+        }
+        return admit(key);
+    }
+
+    private RateLimitedLogWithPattern admit(Object key) {
+        Supplier<KeyedPatterns> replacement = this.replacement.get();
+        if (replacement != null) {
+            return replacement.get().get(key);      // rather than tracking keys which will never be unregistered
+        }
+        @Nullable RateLimitedLogWithPattern evicted = null;
+        RateLimitedLogWithPattern added;
+        synchronized (this) {
+            RateLimitedLogWithPattern got = patterns.get(key);
+            if (got != null) {
+                return got;     // another thread added it
+            }
+            int slot;
+            if (used < maxKeys && scope.tryAddKey(maxKeysPerLog)) {
+                if (used == keys.length) {
+                    keys = Arrays.copyOf(keys, Math.min(Math.max(keys.length * 2, INITIAL_CAPACITY), maxKeys));
+                }
+                slot = used++;
+            } else {
+                slot = findStaleSlot();
+                if (slot < 0) {
+                    return overflow();
+                }
+                evicted = patterns.remove(keys[slot]);
+            }
+            added = newPattern.apply(key);
+            added.markRecentlyUsed();   // give it a chance to be used again before it's evicted
+            keys[slot] = key;
+            patterns.put(key, added);
+        }
+        if (evicted != null) {
+            // outside the lock, since this may log
+            evicted.unregister(() -> get(key));
+        }
+        return added;
+    }
+
+    /**
+     * @return the pattern shared by keys which spill over, creating it if necessary.
+     */
+    private synchronized RateLimitedLogWithPattern overflow() {
+        if (overflow == null) {
+            overflow = newOverflow.get();
+        }
+        return overflow;
+    }
+
+    /**
+     * @return the slot of a key which has not been used since the clock hand last passed it, or -1 if none of the
+     * next few keys are stale.
+     */
+    @GuardedBy("this")
+    private int findStaleSlot() {
+        for (int i = 0; i < Math.min(MAX_EVICTION_SCAN, used); i++) {
+            int slot = hand;
+            hand = (hand + 1) % used;
+            RateLimitedLogWithPattern pattern = patterns.get(keys[slot]);
+            if (pattern == null || !pattern.clearRecentlyUsed()) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    int size() {
+        return patterns.size();
+    }
+
+    /**
+     * Unregister all of the patterns, including the overflow pattern, and stop tracking their keys, giving them
+     * back to the scope's limit.  A caller still holding one of the patterns logs through the one which
+     * @param replacement finds for the same key instead.
+     */
+    void unregister(Supplier<KeyedPatterns> replacement) {
+        this.replacement.set(replacement);
+        List<Map.Entry<Object, RateLimitedLogWithPattern>> unregistered;
+        @Nullable RateLimitedLogWithPattern overflow;
+        synchronized (this) {
+            unregistered = new ArrayList<>(patterns.entrySet());
+            overflow = this.overflow;
+            patterns.clear();
+            Arrays.fill(keys, 0, used, null);
+            scope.removeKeys(used);
+            used = 0;
+            hand = 0;
+        }
+        // outside the lock, since this may log
+        for (Map.Entry<Object, RateLimitedLogWithPattern> entry : unregistered) {
+            Object key = entry.getKey();
+            entry.getValue().unregister(() -> replacement.get().get(key));
+        }
+        if (overflow != null) {
+            overflow.unregister(() -> replacement.get().overflow());
+        }
+    }
+}
@@ -5,9 +5,27 @@ import org.slf4j.Marker;
 
 /**
 * Our supported logging levels. These match SLF4J.
+*
+* The fixed-arity methods map onto SLF4J's fixed-arity methods, so that no varargs array need be allocated.
 */
 public enum Level {
     TRACE("trace") {
+        @Override
+        boolean isEnabled(Logger logger) {
+            return logger.isTraceEnabled();
+        }
+        @Override
+        void log(Logger logger, String msg) {
+            logger.trace(msg);
+        }
+        @Override
+        void log(Logger logger, String msg, Object arg) {
+            logger.trace(msg, arg);
+        }
+        @Override
+        void log(Logger logger, String msg, Object arg1, Object arg2) {
+            logger.trace(msg, arg1, arg2);
+        }
         @Override
         void log(Logger logger, String msg, Object... arguments) {
             logger.trace(msg, arguments);
@@ -17,6 +35,18 @@ public enum Level {
             logger.trace(msg, t);
         }
         @Override
+        void log(Logger logger, String msg, Marker marker) {
+            logger.trace(marker, msg);
+        }
+        @Override
+        void log(Logger logger, String msg, Marker marker, Object arg) {
+            logger.trace(marker, msg, arg);
+        }
+        @Override
+        void log(Logger logger, String msg, Marker marker, Object arg1, Object arg2) {
+            logger.trace(marker, msg, arg1, arg2);
+        }
+        @Override
         void log(Logger logger, String msg, Marker marker, Object... arguments) {
             logger.trace(marker, msg, arguments);
         }
@@ -26,6 +56,22 @@ public enum Level {
         }
     },
     DEBUG("debug") {
+        @Override
+        boolean isEnabled(Logger logger) {
+            return logger.isDebugEnabled();
+        }
+        @Override
+        void log(Logger logger, String msg) {
+            logger.debug(msg);
+        }
+        @Override
+        void log(Logger logger, String msg, Object arg) {
+            logger.debug(msg, arg);
+        }
+        @Override
+        void log(Logger logger, String msg, Object arg1, Object arg2) {
+            logger.debug(msg, arg1, arg2);
+        }
         @Override
         void log(Logger logger, String msg, Object... arguments) {
             logger.debug(msg, arguments);
@@ -35,6 +81,18 @@ public enum Level {
             logger.debug(msg, t);
         }
         @Override
+        void log(Logger logger, String msg, Marker marker) {
+            logger.debug(marker, msg);
+        }
+        @Override
+        void log(Logger logger, String msg, Marker marker, Object arg) {
+            logger.debug(marker, msg, arg);
+        }
+        @Override
+        void log(Logger logger, String msg, Marker marker, Object arg1, Object arg2) {
+            logger.debug(marker, msg, arg1, arg2);
+        }
+        @Override
         void log(Logger logger, String msg, Marker marker, Object... arguments) {
             logger.debug(marker, msg, arguments);
         }
@@ -44,6 +102,22 @@ public enum Level {
         }
     },
     INFO("info") {
+        @Override
+        boolean isEnabled(Logger logger) {
+            return logger.isInfoEnabled();
+        }
+        @Override
+        void log(Logger logger, String msg) {
+            logger.info(msg);
+        }
+        @Override
+        void log(Logger logger, String msg, Object arg) {
+            logger.info(msg, arg);
+        }
+        @Override
+        void log(Logger logger, String msg, Object arg1, Object arg2) {
+            logger.info(msg, arg1, arg2);
+        }
         @Override
         void log(Logger logger, String msg, Object... arguments) {
             logger.info(msg, arguments);
@@ -53,6 +127,18 @@ public enum Level {
             logger.info(msg, t);
         }
         @Override
+        void log(Logger logger, String msg, Marker marker) {
+            logger.info(marker, msg);
+        }
+        @Override
+        void log(Logger logger, String msg, Marker marker, Object arg) {
+            logger.info(marker, msg, arg);
+        }
+        @Override
+        void log(Logger logger, String msg, Marker marker, Object arg1, Object arg2) {
+            logger.info(marker, msg, arg1, arg2);
+        }
+        @Override
         void log(Logger logger, String msg, Marker marker, Object... arguments) {
             logger.info(marker, msg, arguments);
         }
@@ -62,6 +148,22 @@ public enum Level {
         }
     },
     WARN("warn") {
+        @Override
+        boolean isEnabled(Logger logger) {
+            return logger.isWarnEnabled();
+        }
+        @Override
+        void log(Logger logger, String msg) {
+            logger.warn(msg);
+        }
+        @Override
+        void log(Logger logger, String msg, Object arg) {
+            logger.warn(msg, arg);
+        }
+        @Override
+        void log(Logger logger, String msg, Object arg1, Object arg2) {
+            logger.warn(msg, arg1, arg2);
+        }
         @Override
         void log(Logger logger, String msg, Object... arguments) {
             logger.warn(msg, arguments);
@@ -71,6 +173,18 @@ public enum Level {
             logger.warn(msg, t);
         }
         @Override
+        void log(Logger logger, String msg, Marker marker) {
+            logger.warn(marker, msg);
+        }
+        @Override
+        void log(Logger logger, String msg, Marker marker, Object arg) {
+            logger.warn(marker, msg, arg);
+        }
+        @Override
+        void log(Logger logger, String msg, Marker marker, Object arg1, Object arg2) {
+            logger.warn(marker, msg, arg1, arg2);
+        }
+        @Override
         void log(Logger logger, String msg, Marker marker, Object... arguments) {
             logger.warn(marker, msg, arguments);
         }
@@ -80,6 +194,22 @@ public enum Level {
         }
     },
     ERROR("error") {
+        @Override
+        boolean isEnabled(Logger logger) {
+            return logger.isErrorEnabled();
+        }
+        @Override
+        void log(Logger logger, String msg) {
+            logger.error(msg);
+        }
+        @Override
+        void log(Logger logger, String msg, Object arg) {
+            logger.error(msg, arg);
+        }
+        @Override
+        void log(Logger logger, String msg, Object arg1, Object arg2) {
+            logger.error(msg, arg1, arg2);
+        }
         @Override
         void log(Logger logger, String msg, Object... arguments) {
             logger.error(msg, arguments);
@@ -89,6 +219,18 @@ public enum Level {
             logger.error(msg, t);
         }
         @Override
+        void log(Logger logger, String msg, Marker marker) {
+            logger.error(marker, msg);
+        }
+        @Override
+        void log(Logger logger, String msg, Marker marker, Object arg) {
+            logger.error(marker, msg, arg);
+        }
+        @Override
+        void log(Logger logger, String msg, Marker marker, Object arg1, Object arg2) {
+            logger.error(marker, msg, arg1, arg2);
+        }
+        @Override
         void log(Logger logger, String msg, Marker marker, Object... arguments) {
             logger.error(marker, msg, arguments);
         }
@@ -108,8 +250,15 @@ public enum Level {
         return levelName;
     }
 
+    abstract boolean isEnabled(Logger logger);
+    abstract void log(Logger logger, String msg);
+    abstract void log(Logger logger, String msg, Object arg);
+    abstract void log(Logger logger, String msg, Object arg1, Object arg2);
     abstract void log(Logger logger, String msg, Object... arguments);
     abstract void log(Logger logger, String msg, Throwable t);
+    abstract void log(Logger logger, String msg, Marker marker);
+    abstract void log(Logger logger, String msg, Marker marker, Object arg);
+    abstract void log(Logger logger, String msg, Marker marker, Object arg1, Object arg2);
     abstract void log(Logger logger, String msg, Marker marker, Object... arguments);
     abstract void log(Logger logger, String msg, Marker marker, Throwable t);
 }
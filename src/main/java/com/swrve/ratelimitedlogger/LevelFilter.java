@@ -0,0 +1,53 @@
+package com.swrve.ratelimitedlogger;
+
+import org.slf4j.Logger;
+
+import edu.umd.cs.findbugs.annotations.Nullable;
+import net.jcip.annotations.ThreadSafe;
+
+/**
+ * A cached view of which levels are enabled on the wrapped Logger, so that logs at disabled levels can be
+ * skipped before any rate-limiting state is looked up or created for them.  The cache is refreshed periodically
+ * by the Registry, so changes to the Logger's configuration are picked up after a short delay.
+ */
+@ThreadSafe
+class LevelFilter {
+    private static final int ALL_LEVELS = (1 << Level.values().length) - 1;
+
+    /**
+     * A filter which considers every level enabled, and is never refreshed.
+     */
+    static final LevelFilter ALL_ENABLED = new LevelFilter(null);
+
+    private final @Nullable Logger logger;
+
+    /**
+     * Bitmask of the enabled levels, indexed by Level ordinal.
+     */
+    private volatile int enabledLevels = ALL_LEVELS; // mutable
+
+    LevelFilter(@Nullable Logger logger) {
+        this.logger = logger;
+        refresh();
+    }
+
+    boolean isEnabled(Level level) {
+        return (enabledLevels & (1 << level.ordinal())) != 0;
+    }
+
+    /**
+     * Re-read the enabled levels from the wrapped Logger.
+     */
+    void refresh() {
+        if (logger == null) {
+            return;
+        }
+        int enabled = 0;
+        for (Level level : Level.values()) {
+            if (level.isEnabled(logger)) {
+                enabled |= 1 << level.ordinal();
+            }
+        }
+        enabledLevels = enabled;
+    }
+}
@@ -0,0 +1,29 @@
+package com.swrve.ratelimitedlogger;
+
+import net.jcip.annotations.Immutable;
+import java.util.Objects;
+
+/**
+ * The per-level counter metric handles for a RateLimitedLog.  These are resolved once, when the log is built,
+ * so that recording a metric for every log call allocates nothing.
+ */
+@Immutable
+final class LevelMetrics {
+    private static final String RATE_LIMITED_COUNT_SUFFIX = "_rate_limited_log_count";
+
+    private final CounterMetric.Handle[] handles = new CounterMetric.Handle[Level.values().length];
+
+    LevelMetrics(CounterMetric stats) {
+        for (Level level : Level.values()) {
+            handles[level.ordinal()] = Objects.requireNonNull(
+                    stats.handle(level.getLevelName() + RATE_LIMITED_COUNT_SUFFIX));
+        }
+    }
+
+    /**
+     * @return the handle for the "{level}_rate_limited_log_count" metric, for @param level .
+     */
+    CounterMetric.Handle forLevel(Level level) {
+        return handles[level.ordinal()];
+    }
+}
@@ -0,0 +1,132 @@
+package com.swrve.ratelimitedlogger;
+
+import org.slf4j.Logger;
+
+import net.jcip.annotations.GuardedBy;
+import net.jcip.annotations.ThreadSafe;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A limit on the total number of logs emitted across many patterns -- those of one RateLimitedLog, or of every
+ * RateLimitedLog in the JVM -- enforced in addition to their individual rate limits.  This is only consulted once
+ * a log has passed its own pattern's rate limit, so it is not on the suppressed path.
+ *
+ * Like LogWithPatternAndLevel, this is reset once every period by the Registry, at which point a summary of the
+ * logs it suppressed is output.
+ */
+@ThreadSafe
+class LogBudget {
+    private static final long NOT_RATE_LIMITED_YET = 0L;
+    private static final int NO_LEVEL = -1;
+
+    private final int maxRate;
+    private final Duration periodLength;
+    private final Stopwatch stopwatch;
+    private final Logger logger;
+    private final String scope;
+
+    /**
+     * Number of logs which have been let through in the current period, plus any which raced with them to
+     * take the last of the budget.
+     */
+    private final AtomicLong counter = new AtomicLong(0L); // mutable
+
+    /**
+     * Number of logs suppressed by the budget in the current period.  This is striped, since a budget shared
+     * by many patterns may be hit from many threads at once.
+     */
+    private final LongAdder suppressed = new LongAdder(); // mutable
+
+    private final AtomicLong rateLimitedAt = new AtomicLong(NOT_RATE_LIMITED_YET); // mutable
+
+    /**
+     * The ordinal of the most severe Level suppressed in the current period, which the summary is logged at.
+     */
+    private final AtomicInteger mostSevereLevel = new AtomicInteger(NO_LEVEL); // mutable
+
+    /**
+     * @param scope describes which logs share this budget, for the summary of suppressed logs.
+     */
+    LogBudget(int maxRate, Duration periodLength, Stopwatch stopwatch, Logger logger, String scope) {
+        this.maxRate = maxRate;
+        this.periodLength = periodLength;
+        this.stopwatch = stopwatch;
+        this.logger = logger;
+        this.scope = scope;
+    }
+
+    /**
+     * @return true if a log at @param level may be emitted within the budget; false, counting it as suppressed,
+     * if the budget for this period is exhausted.
+     */
+    boolean tryAcquire(Level level) {
+        if (tryAcquireSample()) {
+            return true;
+        }
+        suppressed.increment();
+        if (level.ordinal() > mostSevereLevel.get()) {
+            mostSevereLevel.accumulateAndGet(level.ordinal(), Math::max);
+        }
+        return false;
+    }
+
+    /**
+     * @return true if a log which exceeded its pattern's rate limit, but was sampled, may be emitted within the
+     * budget.  If not, it isn't counted as suppressed here, since its pattern already counts it.
+     */
+    boolean tryAcquireSample() {
+        // once the budget is exhausted, avoid writing to shared state other than the striped counter
+        if (rateLimitedAt.get() == NOT_RATE_LIMITED_YET) {
+            if (counter.incrementAndGet() <= maxRate) {
+                return true;
+            }
+            rateLimitedAt.compareAndSet(NOT_RATE_LIMITED_YET, elapsedMsecs());
+        }
+        return false;
+    }
+
+    /**
+     * Give back a log acquired by tryAcquire(), because a later limit refused it after all, so that it doesn't use
+     * up this budget without being emitted.
+     */
+    void release() {
+        counter.decrementAndGet();
+    }
+
+    /**
+     * Reset the budget, reporting any suppressions.  This is called once every period, by the Registry.
+     */
+    synchronized void periodicReset() {
+        long count = counter.get();
+        counter.addAndGet(-count);
+        long whenLimited = rateLimitedAt.getAndSet(NOT_RATE_LIMITED_YET);
+        if (whenLimited != NOT_RATE_LIMITED_YET) {
+            reportSuppression(whenLimited);
+        }
+    }
+
+    @GuardedBy("this")
+    private void reportSuppression(long whenLimited) {
+        long numSuppressed = suppressed.sum();
+        suppressed.add(-numSuppressed);
+        int levelOrdinal = mostSevereLevel.getAndSet(NO_LEVEL);
+        if (numSuppressed == 0 || levelOrdinal == NO_LEVEL) {
+            return;
+        }
+        Duration howLong = Duration.ofMillis(elapsedMsecs()).minusMillis(whenLimited);
+        Level.values()[levelOrdinal].log(logger, "(suppressed {} logs in {}, exceeding the limit of {} per {} {})",
+                numSuppressed, howLong, maxRate, periodLength, scope);
+    }
+
+    private long elapsedMsecs() {
+        long elapsed = stopwatch.elapsedTime(TimeUnit.MILLISECONDS);
+        if (elapsed == NOT_RATE_LIMITED_YET) {
+            elapsed++;  // avoid using the magic value by "rounding up"
+        }
+        return elapsed;
+    }
+}
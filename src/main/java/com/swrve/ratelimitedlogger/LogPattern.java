@@ -0,0 +1,44 @@
+package com.swrve.ratelimitedlogger;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a constant log pattern, for which the rate-limited-logger-processor annotation processor will generate a
+ * static LogWithPatternAndLevel handle.  For example:
+ *
+ * <pre>
+ *    class Foo {
+ *        static final RateLimitedLog LOG = RateLimitedLog.withRateLimit(logger)...build();
+ *
+ *        &#64;LogPattern(Level.WARN)
+ *        static final String FAILED_FOR_USER = "failed for user {}";
+ *
+ *        void foo() {
+ *            FooLogHandles.FAILED_FOR_USER.log(user);
+ *        }
+ *    }
+ * </pre>
+ *
+ * The generated FooLogHandles class is in the same package, and holds one handle, obtained using
+ * RateLimitedLog.handle(), for each pattern.  The annotated field must be a static final, non-private, constant
+ * String, and the class must have a static, non-private RateLimitedLog field; the processor checks these at
+ * build time.
+ */
+@Documented
+@Retention(RetentionPolicy.SOURCE)
+@Target(ElementType.FIELD)
+public @interface LogPattern {
+    /**
+     * The level at which the pattern is logged.
+     */
+    Level value();
+
+    /**
+     * The name of the RateLimitedLog field to log to.  Optional if the class has only one.
+     */
+    String log() default "";
+}
@@ -7,8 +7,11 @@ import edu.umd.cs.findbugs.annotations.Nullable;
 import net.jcip.annotations.GuardedBy;
 import net.jcip.annotations.ThreadSafe;
 import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
 
 /**
  * An individual log pattern and level - the unit of rate limiting.  Each object is rate-limited
@@ -20,14 +23,28 @@ import java.util.concurrent.atomic.AtomicLong;
 public class LogWithPatternAndLevel {
 
     private static final long NOT_RATE_LIMITED_YET = 0L;
-    private static final String RATE_LIMITED_COUNT_SUFFIX = "_rate_limited_log_count";
+
+    /**
+     * Logged in place of a log with a Throwable, once its stack trace is elided.
+     */
+    private static final String ELIDED_STACK_TRACE = "{} [{}: {}; stack trace elided, fingerprint {}]";
+
+    /**
+     * The number of stack frames covered by the fingerprint of an exception whose stack trace is elided, unless
+     * exceptions are already fingerprinted for rate limiting.
+     */
+    private static final int ELIDED_FINGERPRINT_FRAMES = 5;
 
     private final String message;
     private final Level level;
     private final RateLimitedLogWithPattern.RateAndPeriod rateAndPeriod;
     private final Logger logger;
-    private final @Nullable  CounterMetric stats;
+    private final @Nullable CounterMetric.Handle stats;
     private final Stopwatch stopwatch;
+    private final @Nullable LogBudget budget;
+    private final Registry.Scope scope;
+    private final @Nullable AdaptiveRate adaptiveRate;
+    private final @Nullable AsyncEmitter emitter;
 
     /**
      * Number of observed logs in the current time period based on the log level.
@@ -40,16 +57,88 @@ public class LogWithPatternAndLevel {
      */
     private final AtomicLong rateLimitedAt = new AtomicLong(NOT_RATE_LIMITED_YET); // mutable
 
+    /**
+     * The number of logs we let through before the rate limit was exceeded in the current period.  This is
+     * maxRate, unless an AdaptiveRate is in use, or logs raced to exceed the limit.
+     */
+    @GuardedBy("this")
+    private long permittedCount = 0L; // mutable
+
+    /**
+     * If striped counters are in use, logs observed once the rate limit has been exceeded are counted here,
+     * rather than in the counter, so that heavily-contended suppressed logging does not bounce a single cache
+     * line between CPU cores.  Null if striped counters are not in use.
+     */
+    private final @Nullable LongAdder suppressedCounter; // mutable
+
+    /**
+     * If a token-bucket or sliding-window algorithm is in use, this decides which logs to let through, and the
+     * counters track only the suppressed logs.  Null if the fixed-window algorithm is in use.
+     */
+    private final @Nullable RateLimiter limiter;
+
+    /**
+     * If this object stands for all of a RateLimitedLog's patterns, counted in a count-min sketch, this decides
+     * which logs to let through, by their logged messages, and the counters track only the suppressed logs.
+     */
+    private final @Nullable CountMinSketch sketch;
+
+    /**
+     * If stack traces are elided once they have been logged a few times, this decides which logs with a Throwable
+     * are logged with their stack traces in the current period.
+     */
+    private final @Nullable RateLimiter fullStackTraces;
+
+    /**
+     * If an AsyncEmitter is in use, logs which were let through but discarded because its ring buffer was full are
+     * counted here, and reported along with the suppressed logs; droppedAt records when the first was discarded,
+     * as rateLimitedAt does.
+     */
+    private final AtomicLong dropped = new AtomicLong(0L); // mutable
+    private final AtomicLong droppedAt = new AtomicLong(NOT_RATE_LIMITED_YET); // mutable
+
+    /**
+     * If every Nth log over the rate limit is sampled, the number of logs over the limit so far; this isn't reset
+     * each period, since the sampling doesn't need to restart.  Null if that kind of sampling is not in use.
+     */
+    private final @Nullable AtomicLong overLimit; // mutable
+
+    /**
+     * The number of logs over the rate limit which were sampled, and let through, in the current period.  They are
+     * also counted in the counters, and subtracted from them when suppressions are reported.
+     */
+    private final AtomicLong sampled = new AtomicLong(0L); // mutable
+
+    /**
+     * Set once this log's pattern has been evicted from its RateLimitedLog's cache, so that it is no longer reset
+     * by the Registry.  A caller may still hold on to it, as RateLimitedLog.get(pattern, level) allows, so it then
+     * finds the log which has taken its place, and logs through that.
+     */
+    private volatile @Nullable Supplier<LogWithPatternAndLevel> replacement = null; // mutable
+
     LogWithPatternAndLevel(String message, Level level,
                            RateLimitedLogWithPattern.RateAndPeriod rateAndPeriod,
-                           @Nullable CounterMetric stats,
-                           Stopwatch stopwatch, Logger logger) {
+                           @Nullable CounterMetric.Handle stats,
+                           @Nullable LogBudget budget, Registry.Scope scope,
+                           @Nullable AdaptiveRate adaptiveRate, @Nullable AsyncEmitter emitter,
+                           @Nullable CountMinSketch sketch, Stopwatch stopwatch, Logger logger) {
         this.message = message;
         this.level = level;
         this.rateAndPeriod = rateAndPeriod;
         this.logger = logger;
         this.stats = stats;
         this.stopwatch = stopwatch;
+        this.budget = budget;
+        this.scope = scope;
+        this.adaptiveRate = adaptiveRate;
+        this.emitter = emitter;
+        this.suppressedCounter = rateAndPeriod.stripedCounters ? new LongAdder() : null;
+        this.limiter = rateAndPeriod.newRateLimiter(stopwatch);
+        this.sketch = sketch;
+        int fullStackTraces = rateAndPeriod.options.fullStackTraces;
+        this.fullStackTraces = (fullStackTraces == 0) ? null : new EpochWindow(
+                new RateLimitedLogWithPattern.RateAndPeriod(fullStackTraces, rateAndPeriod.periodLength), stopwatch);
+        this.overLimit = (rateAndPeriod.options.sampleEveryNth > 0) ? new AtomicLong(0L) : null;
     }
 
     /**
@@ -62,38 +151,383 @@ public class LogWithPatternAndLevel {
      *    rateLimitedLog.info("Just saw an event of type {}: {}", event.getType(), event);
      * </pre>
      *
+     * The zero-, one- and two-argument forms avoid allocating a varargs array, so a suppressed
+     * call allocates nothing.
+     *
      * @param args the varargs list of arguments matching the message template
      */
+    public void log() {
+        logAs(message);
+    }
+
+    public void log(Object arg) {
+        logAs(message, arg);
+    }
+
+    public void log(Object arg1, Object arg2) {
+        logAs(message, arg1, arg2);
+    }
+
     public void log(Object... args) {
-        if (!isRateLimited()) {
-            level.log(logger, message, args);
+        logAs(message, args);
+    }
+
+    public void log(Throwable t) {
+        logAs(message, t);
+    }
+
+    public void log(Marker marker) {
+        logAs(message, marker);
+    }
+
+    public void log(Marker marker, Object arg) {
+        logAs(message, marker, arg);
+    }
+
+    public void log(Marker marker, Object arg1, Object arg2) {
+        logAs(message, marker, arg1, arg2);
+    }
+
+    public void log(Marker marker, Object... args) {
+        logAs(message, marker, args);
+    }
+
+    public void log(Marker marker, Throwable t) {
+        logAs(message, marker, t);
+    }
+
+    /**
+     * As the log() methods, but logging @param loggedMessage in place of this object's pattern; used when the
+     * pattern was normalised from the message.
+     */
+    void logAs(String loggedMessage) {
+        LogWithPatternAndLevel replaced = replaced();
+        if (replaced != null) {
+            replaced.logAs(loggedMessage);
+            return;
+        }
+        String admitted = admit(loggedMessage);
+        if (admitted != null) {
+            if (emitter != null) {
+                if (!emitter.log(level, logger, admitted)) {
+                    countDropped(loggedMessage, admitted);
+                }
+            } else {
+                long start = startTiming();
+                level.log(logger, admitted);
+                stopTiming(start);
+            }
         }
         incrementStats();
     }
 
-    public void log(Throwable t) {
-        if (!isRateLimited()) {
-            level.log(logger, message, t);
+    void logAs(String loggedMessage, Object arg) {
+        LogWithPatternAndLevel replaced = replaced();
+        if (replaced != null) {
+            replaced.logAs(loggedMessage, arg);
+            return;
+        }
+        String admitted = admit(loggedMessage);
+        if (admitted != null) {
+            if (emitter != null) {
+                if (!emitter.log(level, logger, admitted, arg)) {
+                    countDropped(loggedMessage, admitted);
+                }
+            } else {
+                long start = startTiming();
+                level.log(logger, admitted, arg);
+                stopTiming(start);
+            }
         }
         incrementStats();
     }
 
-    public void log(Marker marker, Object... args) {
-        if (!isRateLimited()) {
-            level.log(logger, message, marker, args);
+    void logAs(String loggedMessage, Object arg1, Object arg2) {
+        LogWithPatternAndLevel replaced = replaced();
+        if (replaced != null) {
+            replaced.logAs(loggedMessage, arg1, arg2);
+            return;
+        }
+        String admitted = admit(loggedMessage);
+        if (admitted != null) {
+            if (emitter != null) {
+                if (!emitter.log(level, logger, admitted, arg1, arg2)) {
+                    countDropped(loggedMessage, admitted);
+                }
+            } else {
+                long start = startTiming();
+                level.log(logger, admitted, arg1, arg2);
+                stopTiming(start);
+            }
         }
         incrementStats();
     }
 
-    public void log(Marker marker, Throwable t) {
-        if (!isRateLimited()) {
-            level.log(logger, message, marker, t);
+    void logAs(String loggedMessage, Object... args) {
+        LogWithPatternAndLevel replaced = replaced();
+        if (replaced != null) {
+            replaced.logAs(loggedMessage, args);
+            return;
+        }
+        String admitted = admit(loggedMessage);
+        if (admitted != null) {
+            if (emitter != null) {
+                if (!emitter.log(level, logger, admitted, args)) {
+                    countDropped(loggedMessage, admitted);
+                }
+            } else {
+                long start = startTiming();
+                level.log(logger, admitted, args);
+                stopTiming(start);
+            }
+        }
+        incrementStats();
+    }
+
+    void logAs(String loggedMessage, Throwable t) {
+        LogWithPatternAndLevel replaced = replaced();
+        if (replaced != null) {
+            replaced.logAs(loggedMessage, t);
+            return;
+        }
+        String admitted = admit(loggedMessage);
+        if (admitted != null) {
+            if (fullStackTraces != null && !fullStackTraces.tryAcquire()) {
+                logElided(loggedMessage, admitted, null, t);
+            } else if (emitter != null) {
+                if (!emitter.log(level, logger, admitted, t)) {
+                    countDropped(loggedMessage, admitted);
+                }
+            } else {
+                long start = startTiming();
+                level.log(logger, admitted, t);
+                stopTiming(start);
+            }
+        }
+        incrementStats();
+    }
+
+    void logAs(String loggedMessage, Marker marker) {
+        LogWithPatternAndLevel replaced = replaced();
+        if (replaced != null) {
+            replaced.logAs(loggedMessage, marker);
+            return;
+        }
+        String admitted = admit(loggedMessage);
+        if (admitted != null) {
+            if (emitter != null) {
+                if (!emitter.log(level, logger, admitted, marker)) {
+                    countDropped(loggedMessage, admitted);
+                }
+            } else {
+                long start = startTiming();
+                level.log(logger, admitted, marker);
+                stopTiming(start);
+            }
+        }
+        incrementStats();
+    }
+
+    void logAs(String loggedMessage, Marker marker, Object arg) {
+        LogWithPatternAndLevel replaced = replaced();
+        if (replaced != null) {
+            replaced.logAs(loggedMessage, marker, arg);
+            return;
+        }
+        String admitted = admit(loggedMessage);
+        if (admitted != null) {
+            if (emitter != null) {
+                if (!emitter.log(level, logger, admitted, marker, arg)) {
+                    countDropped(loggedMessage, admitted);
+                }
+            } else {
+                long start = startTiming();
+                level.log(logger, admitted, marker, arg);
+                stopTiming(start);
+            }
+        }
+        incrementStats();
+    }
+
+    void logAs(String loggedMessage, Marker marker, Object arg1, Object arg2) {
+        LogWithPatternAndLevel replaced = replaced();
+        if (replaced != null) {
+            replaced.logAs(loggedMessage, marker, arg1, arg2);
+            return;
+        }
+        String admitted = admit(loggedMessage);
+        if (admitted != null) {
+            if (emitter != null) {
+                if (!emitter.log(level, logger, admitted, marker, arg1, arg2)) {
+                    countDropped(loggedMessage, admitted);
+                }
+            } else {
+                long start = startTiming();
+                level.log(logger, admitted, marker, arg1, arg2);
+                stopTiming(start);
+            }
+        }
+        incrementStats();
+    }
+
+    void logAs(String loggedMessage, Marker marker, Object... args) {
+        LogWithPatternAndLevel replaced = replaced();
+        if (replaced != null) {
+            replaced.logAs(loggedMessage, marker, args);
+            return;
+        }
+        String admitted = admit(loggedMessage);
+        if (admitted != null) {
+            if (emitter != null) {
+                if (!emitter.log(level, logger, admitted, marker, args)) {
+                    countDropped(loggedMessage, admitted);
+                }
+            } else {
+                long start = startTiming();
+                level.log(logger, admitted, marker, args);
+                stopTiming(start);
+            }
+        }
+        incrementStats();
+    }
+
+    void logAs(String loggedMessage, Marker marker, Throwable t) {
+        LogWithPatternAndLevel replaced = replaced();
+        if (replaced != null) {
+            replaced.logAs(loggedMessage, marker, t);
+            return;
+        }
+        String admitted = admit(loggedMessage);
+        if (admitted != null) {
+            if (fullStackTraces != null && !fullStackTraces.tryAcquire()) {
+                logElided(loggedMessage, admitted, marker, t);
+            } else if (emitter != null) {
+                if (!emitter.log(level, logger, admitted, marker, t)) {
+                    countDropped(loggedMessage, admitted);
+                }
+            } else {
+                long start = startTiming();
+                level.log(logger, admitted, marker, t);
+                stopTiming(start);
+            }
         }
         incrementStats();
     }
 
-    @SuppressWarnings("BooleanMethodIsAlwaysInverted")
-    private boolean isRateLimited() {
+    /**
+     * Log @param admitted , as admit() returned it for @param loggedMessage , with a summary of @param t , rather
+     * than its stack trace: its class, message and fingerprint, so that repeats of the same exception can be
+     * recognised.
+     */
+    private void logElided(String loggedMessage, String admitted, @Nullable Marker marker, Throwable t) {
+        int frames = (rateAndPeriod.options.fingerprintFrames > 0)
+                ? rateAndPeriod.options.fingerprintFrames : ELIDED_FINGERPRINT_FRAMES;
+        Object[] args = {admitted, t.getClass().getName(), t.getMessage(),
+                Integer.toHexString((int) ExceptionFingerprint.of(t, frames))};
+        if (emitter != null) {
+            boolean published = (marker == null) ? emitter.log(level, logger, ELIDED_STACK_TRACE, args)
+                    : emitter.log(level, logger, ELIDED_STACK_TRACE, marker, args);
+            if (!published) {
+                countDropped(loggedMessage, admitted);
+            }
+        } else {
+            long start = startTiming();
+            if (marker == null) {
+                level.log(logger, ELIDED_STACK_TRACE, args);
+            } else {
+                level.log(logger, ELIDED_STACK_TRACE, marker, args);
+            }
+            stopTiming(start);
+        }
+    }
+
+    /**
+     * Register this log with its Scope, so that it is reset, or at least flushed.
+     */
+    void register() {
+        if (rateAndPeriod.needsPeriodicReset()) {
+            // ensure we'll reset the counter once every period
+            scope.register(this, rateAndPeriod.periodLength);
+        } else {
+            // no reset needed, but we still want to report suppressions on flush
+            scope.registerForFlush(this);
+        }
+    }
+
+    /**
+     * Stop resetting this log, after reporting any suppressions, since its pattern has been evicted.  From now on,
+     * it logs through the log which @param replacement finds in its place.
+     */
+    void unregister(Supplier<LogWithPatternAndLevel> replacement) {
+        this.replacement = replacement;     // first, so that logs counted here are reported by scope.unregister()
+        scope.unregister(this);
+    }
+
+    /**
+     * @return the log which has taken this one's place, if its pattern has been evicted; otherwise, null.
+     */
+    private @Nullable LogWithPatternAndLevel replaced() {
+        Supplier<LogWithPatternAndLevel> replacement = this.replacement;
+        return (replacement == null) ? null : replacement.get();
+    }
+
+    /**
+     * @return the message to log for @param loggedMessage : the message itself, if it's within the rate limits;
+     * the message tagged as sampled, if it exceeded the pattern's limit but was sampled; or null, if it's
+     * suppressed.
+     */
+    private @Nullable String admit(String loggedMessage) {
+        boolean isSample = false;
+        if (isRateLimitedByPattern(loggedMessage)) {
+            if (!isSampled()) {
+                return null;
+            }
+            isSample = true;
+        }
+        // this log is within the pattern's limit, or sampled, but that may still be too many logs overall
+        if (budget != null && !tryAcquire(budget, isSample)) {
+            return null;
+        }
+        LogBudget globalBudget = scope.getGlobalBudget();
+        if (globalBudget != null && !tryAcquire(globalBudget, isSample)) {
+            if (budget != null) {
+                budget.release();   // it wasn't emitted, so mustn't count against this log's own budget
+            }
+            return null;
+        }
+        if (isSample) {
+            sampled.incrementAndGet();
+            return loggedMessage + rateAndPeriod.options.samplingTag;
+        }
+        return loggedMessage;
+    }
+
+    /**
+     * @return true if this log fits in @param budget .  If it doesn't, and @param isSample is set, it's only
+     * reported as suppressed by this pattern, which already counts it as over the limit, rather than by both.
+     */
+    private boolean tryAcquire(LogBudget budget, boolean isSample) {
+        return isSample ? budget.tryAcquireSample() : budget.tryAcquire(level);
+    }
+
+    /**
+     * @return true if a log over the pattern's rate limit should be let through anyway, as a sample.
+     */
+    private boolean isSampled() {
+        if (overLimit != null) {
+            return overLimit.incrementAndGet() % rateAndPeriod.options.sampleEveryNth == 0;
+        }
+        return rateAndPeriod.options.sampleProbability > 0.0
+                && ThreadLocalRandom.current().nextDouble() < rateAndPeriod.options.sampleProbability;
+    }
+
+    private boolean isRateLimitedByPattern(String loggedMessage) {
+        if (limiter != null) {
+            return isRateLimitedBy(limiter);
+        }
+        if (sketch != null) {
+            return isRateLimitedBy(sketch, loggedMessage);
+        }
 
         // note: this method is not synchronized, for performance.  If we exceed the maxRate, we will start checking
         // haveExceededLimit, and if that's still false, we enter the synchronized haveJustExceededRateLimit() method.
@@ -105,11 +539,18 @@ public class LogWithPatternAndLevel {
         // when haveJustExceededRateLimit() eventually got to execute.  We will also potentially log a small
         // number more lines to the logger than the rate limit allows.
         //
+        // Once we're over the limit, the counter is only incremented, to count the suppressed log; with striped
+        // counters, a LongAdder is used instead, which spreads contended increments across cells.
+        //
+        if (rateLimitedAt.get() != NOT_RATE_LIMITED_YET) {
+            countSuppressed();
+            return true;
+        }
         long count = counter.incrementAndGet();
-        if (count < rateAndPeriod.maxRate) {
+        if (count < maxRate()) {
             return false;
-        } else if (count >= rateAndPeriod.maxRate && rateLimitedAt.get() == NOT_RATE_LIMITED_YET) {
-            haveJustExceededRateLimit();
+        } else if (rateLimitedAt.get() == NOT_RATE_LIMITED_YET) {
+            haveJustExceededRateLimit(count);
             return false; // we still issue this final log, though
         } else {
             return true;
@@ -117,29 +558,157 @@ public class LogWithPatternAndLevel {
     }
 
     /**
-     * Reset the counter and suppression details, if necessary.  This is called once every period, by the Registry.
+     * @return the current rate limit; this is maxRate, unless an AdaptiveRate has scaled it down.
+     */
+    private int maxRate() {
+        return (adaptiveRate == null) ? rateAndPeriod.maxRate : adaptiveRate.effectiveRate(rateAndPeriod.maxRate);
+    }
+
+    private void countSuppressed() {
+        if (suppressedCounter != null) {
+            suppressedCounter.increment();
+        } else {
+            counter.incrementAndGet();
+        }
+    }
+
+    /**
+     * With a RateLimiter, there is no periodic reset; instead, once a log is let through after some were
+     * suppressed, we report those suppressions first.
+     */
+    private boolean isRateLimitedBy(RateLimiter limiter) {
+        if (!limiter.tryAcquire()) {
+            countSuppressed();
+            if (rateLimitedAt.get() == NOT_RATE_LIMITED_YET) {
+                rateLimitedAt.compareAndSet(NOT_RATE_LIMITED_YET, elapsedMsecs());
+            }
+            return true;
+        }
+        if (rateLimitedAt.get() != NOT_RATE_LIMITED_YET || droppedAt.get() != NOT_RATE_LIMITED_YET) {
+            periodicReset();
+        }
+        return false;
+    }
+
+    /**
+     * With a CountMinSketch, the sketch counts the logs which are let through, and is reset by the Registry; we
+     * count only the suppressed logs, and report them when we are reset.
+     */
+    private boolean isRateLimitedBy(CountMinSketch sketch, String loggedMessage) {
+        if (sketch.tryAcquire(loggedMessage, level, maxRate())) {
+            return false;
+        }
+        countSuppressed();
+        if (rateLimitedAt.get() == NOT_RATE_LIMITED_YET) {
+            rateLimitedAt.compareAndSet(NOT_RATE_LIMITED_YET, elapsedMsecs());
+        }
+        return true;
+    }
+
+    /**
+     * Reset the counter and suppression details, if necessary.  This is called once every period, by the Registry,
+     * or if a RateLimiter is in use, before the first log let through after a suppression.
      */
     synchronized void periodicReset() {
         long whenLimited = rateLimitedAt.getAndSet(NOT_RATE_LIMITED_YET);
+        long whenDropped = droppedAt.getAndSet(NOT_RATE_LIMITED_YET);
+        if (whenLimited != NOT_RATE_LIMITED_YET || whenDropped != NOT_RATE_LIMITED_YET) {
+            reportSuppression(whenLimited, whenDropped);
+        }
+    }
+
+    @GuardedBy("this")
+    private void reportSuppression(long whenLimited, long whenDropped) {
+        long numSuppressed = dropped.getAndSet(0L);
+        long numSampled = 0L;
         if (whenLimited != NOT_RATE_LIMITED_YET) {
-            reportSuppression(whenLimited);
+            // sampled logs were counted as over the limit, but were let through
+            numSampled = sampled.getAndSet(0L);
+            numSuppressed += Math.max(0L, takeSuppressedCount() - numSampled);
+        }
+        if (numSuppressed == 0 && numSampled == 0) {
+            return;  // special case: we hit the rate limit, but did not actually exceed it -- nothing got suppressed, so there's no need to log
+        }
+        long since = (whenLimited == NOT_RATE_LIMITED_YET) ? whenDropped
+                : (whenDropped == NOT_RATE_LIMITED_YET) ? whenLimited : Math.min(whenLimited, whenDropped);
+        SuppressionSummary summary = scope.getSummary();
+        if (summary != null) {
+            summary.add(level, message, numSuppressed, numSampled, since);
+            return;
+        }
+        Duration howLong = Duration.ofMillis(elapsedMsecs()).minusMillis(since);
+        if (sketch != null) {
+            if (numSampled > 0) {
+                level.log(logger, "(suppressed {} logs and sampled {} in {}, "
+                                + "each exceeding the limit of {} per {} for its pattern)",
+                        numSuppressed, numSampled, howLong, rateAndPeriod.maxRate, rateAndPeriod.periodLength);
+            } else {
+                level.log(logger, "(suppressed {} logs in {}, each exceeding the limit of {} per {} for its pattern)",
+                        numSuppressed, howLong, rateAndPeriod.maxRate, rateAndPeriod.periodLength);
+            }
+            return;
+        }
+        if (numSampled > 0) {
+            level.log(logger, "(suppressed {} logs similar to '{}' in {}, and sampled {} more)",
+                    numSuppressed, message, howLong, numSampled);
+        } else {
+            level.log(logger, "(suppressed {} logs similar to '{}' in {})", numSuppressed, message, howLong);
         }
     }
 
+    /**
+     * @return the number of logs suppressed by the rate limit in this period, resetting the counters.
+     */
     @GuardedBy("this")
-    private void reportSuppression(long whenLimited) {
+    private long takeSuppressedCount() {
         long count = counter.get();
         counter.addAndGet(-count);
-        long numSuppressed = count - rateAndPeriod.maxRate;
-        if (numSuppressed == 0) {
-            return;  // special case: we hit the rate limit, but did not actually exceed it -- nothing got suppressed, so there's no need to log
+        if (suppressedCounter != null) {
+            // LongAdder.sumThenReset() can lose concurrent increments on Java 8, so subtract what we saw instead
+            long suppressedCount = suppressedCounter.sum();
+            suppressedCounter.add(-suppressedCount);
+            count += suppressedCount;
         }
-        Duration howLong = Duration.ofMillis(elapsedMsecs()).minusMillis(whenLimited);
-        level.log(logger, "(suppressed {} logs similar to '{}' in {})", numSuppressed, message, howLong);
+        // with a RateLimiter or CountMinSketch, only suppressed logs are counted, and permittedCount remains 0
+        long numSuppressed = count - permittedCount;
+        permittedCount = 0L;
+        return numSuppressed;
     }
 
-    private synchronized void haveJustExceededRateLimit() {
+    /**
+     * A log was let through, as @param admitted for @param loggedMessage , but the AsyncEmitter discarded it;
+     * count it as suppressed.  A sampled log is already counted as over the rate limit, so it just stops being
+     * counted as sampled; if suppressions were reported in between, it was already reported as sampled.
+     */
+    private void countDropped(String loggedMessage, String admitted) {
+        //noinspection StringEquality
+        if (admitted != loggedMessage) {
+            // admit() only returns a different String when it tags a sampled log
+            sampled.getAndUpdate(count -> (count > 0L) ? count - 1L : count);
+            return;
+        }
+        dropped.incrementAndGet();
+        if (droppedAt.get() == NOT_RATE_LIMITED_YET) {
+            droppedAt.compareAndSet(NOT_RATE_LIMITED_YET, elapsedMsecs());
+        }
+    }
+
+    private synchronized void haveJustExceededRateLimit(long count) {
         rateLimitedAt.set(elapsedMsecs());
+        permittedCount = Math.max(permittedCount, count);
+    }
+
+    /**
+     * If an AdaptiveRate is in use, time the call to the wrapped Logger.
+     */
+    private long startTiming() {
+        return (adaptiveRate == null) ? 0L : stopwatch.elapsedTime(TimeUnit.NANOSECONDS);
+    }
+
+    private void stopTiming(long start) {
+        if (adaptiveRate != null) {
+            adaptiveRate.recordLatency(stopwatch.elapsedTime(TimeUnit.NANOSECONDS) - start);
+        }
     }
 
     private long elapsedMsecs() {
@@ -159,10 +728,12 @@ public class LogWithPatternAndLevel {
      * extracting that without making a mess is complex, and if that's desired, it's easy enough
      * for calling code to do it instead.  As an "early warning" indicator that lots of logging
      * activity took place, this is useful enough.
+     *
+     * The metric's Handle is resolved when the RateLimitedLog is built, so this does not allocate.
      */
     private void incrementStats() {
-        if(stats != null) {
-            stats.increment(level.getLevelName() + RATE_LIMITED_COUNT_SUFFIX);
+        if (stats != null) {
+            stats.increment();
         }
     }
 
@@ -0,0 +1,249 @@
+package com.swrve.ratelimitedlogger;
+
+import edu.umd.cs.findbugs.annotations.Nullable;
+import net.jcip.annotations.GuardedBy;
+import net.jcip.annotations.ThreadSafe;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+
+/**
+ * A bounded cache of RateLimitedLogWithPattern objects, keyed by pattern, which evicts using the CLOCK algorithm.
+ *
+ * Each cached pattern has a "recently used" bit, which is set whenever it is looked up.  When the cache is full,
+ * a clock hand sweeps around the cached patterns, clearing the bit of each one it passes, until it finds one
+ * whose bit is already clear; that one is evicted.  New patterns are cached with the bit clear, so a one-off
+ * pattern (such as an accidentally-interpolated string) is evicted on the next sweep, while a pattern which is
+ * used repeatedly survives, keeping its rate-limiting state.  Patterns can also be pinned, so that they are
+ * never evicted.
+ *
+ * In front of the map is a small, direct-mapped table keyed on the identity of the key String.  Patterns are
+ * almost always string literals, so the same String instance is passed on every call, and it can be found with a
+ * reference comparison, rather than hashing and comparing (potentially long) strings.
+ *
+ * Only the first maxKeyLength characters of a pattern are significant.  Longer patterns are keyed on a PrefixKey,
+ * which hashes and compares that prefix in place, so that looking them up does not allocate a substring.
+ *
+ * Thread-safe.  Lookups never block; only adding a new pattern takes a lock.
+ */
+@ThreadSafe
+class PatternCache {
+    private static final int IDENTITY_TABLE_SIZE = 256;     // must be a power of 2
+
+    /**
+     * A reusable PrefixKey per thread, for looking up long patterns.
+     */
+    private static final ThreadLocal<PrefixKey> LOOKUP_KEY = ThreadLocal.withInitial(PrefixKey::new);
+
+    /**
+     * Patterns, keyed by the pattern String, or a PrefixKey if it's maxKeyLength or more characters long.
+     */
+    private final ConcurrentHashMap<Object, RateLimitedLogWithPattern> map = new ConcurrentHashMap<>();
+    private final int maxKeyLength;
+    private final Consumer<RateLimitedLogWithPattern> evictionListener;
+
+    /**
+     * Recently-used patterns, indexed by the identity hash code of their key.  Entries are simply overwritten
+     * when their slots collide.
+     */
+    private final AtomicReferenceArray<IdentityEntry> identityTable = new AtomicReferenceArray<>(IDENTITY_TABLE_SIZE);
+
+    /**
+     * The slots of the clock, in which each cached pattern has its own slot.
+     */
+    @GuardedBy("this")
+    private final Object[] keys;
+
+    @GuardedBy("this")
+    private final RateLimitedLogWithPattern[] values;
+
+    @GuardedBy("this")
+    private int hand = 0; // mutable
+
+    @GuardedBy("this")
+    private int used = 0; // mutable
+
+    /**
+     * Create a cache of up to @param capacity patterns, of which the first @param maxKeyLength characters are
+     * significant, which calls @param evictionListener , outside of any lock, with each pattern which is evicted.
+     */
+    PatternCache(int capacity, int maxKeyLength, Consumer<RateLimitedLogWithPattern> evictionListener) {
+        this.maxKeyLength = maxKeyLength;
+        this.keys = new Object[capacity];
+        this.values = new RateLimitedLogWithPattern[capacity];
+        this.evictionListener = evictionListener;
+    }
+
+    /**
+     * @return the cached pattern for @param key , marking it as recently used; or null if it's not cached.
+     */
+    @Nullable RateLimitedLogWithPattern get(String key) {
+        RateLimitedLogWithPattern got;
+        if (key.length() < maxKeyLength) {
+            got = map.get(key);
+        } else {
+            PrefixKey lookupKey = LOOKUP_KEY.get();
+            lookupKey.set(key, maxKeyLength);
+            got = map.get(lookupKey);
+            lookupKey.clear();      // don't hold on to the (possibly huge) string
+        }
+        if (got != null) {
+            got.markRecentlyUsed();
+        }
+        return got;
+    }
+
+    /**
+     * @return the cached pattern for the same String instance as @param key , marking it as recently used; or
+     * null if it's not in the identity table.  If this returns null, use get().
+     */
+    @Nullable RateLimitedLogWithPattern getIdentical(String key) {
+        IdentityEntry entry = identityTable.get(System.identityHashCode(key) & (IDENTITY_TABLE_SIZE - 1));
+        if (entry != null && entry.key == key && !entry.value.isEvicted()) {
+            entry.value.markRecentlyUsed();
+            return entry.value;
+        }
+        return null;
+    }
+
+    /**
+     * Add @param value , which must have been returned by get() or putIfAbsent() for @param key , to the identity
+     * table, so that it can be found by getIdentical().
+     *
+     * If the slot already holds @param value , under an equal key, it's left alone: a pattern which is built
+     * afresh for each call would otherwise allocate a new entry every time, and would evict the entry for a
+     * string literal which it shares a slot with.
+     */
+    void putIdentical(String key, RateLimitedLogWithPattern value) {
+        int index = System.identityHashCode(key) & (IDENTITY_TABLE_SIZE - 1);
+        IdentityEntry entry = identityTable.get(index);
+        if (entry != null && entry.value == value) {
+            return;
+        }
+        identityTable.set(index, new IdentityEntry(key, value));
+    }
+
+    /**
+     * Cache @param value under @param pattern , evicting another pattern if the cache is full, unless a pattern is
+     * already cached under that key.
+     *
+     * @return the pattern now cached under @param pattern .
+     */
+    RateLimitedLogWithPattern putIfAbsent(String pattern, RateLimitedLogWithPattern value) {
+        Object key = (pattern.length() < maxKeyLength) ? pattern
+                : new PrefixKey(pattern.substring(0, maxKeyLength), maxKeyLength);
+        RateLimitedLogWithPattern evicted = null;
+        synchronized (this) {
+            RateLimitedLogWithPattern existing = map.get(key);
+            if (existing != null) {
+                return existing;
+            }
+            if (used < values.length) {
+                hand = used++;
+            } else {
+                while (values[hand].clearRecentlyUsed()) {
+                    hand = (hand + 1) % values.length;
+                }
+                evicted = values[hand];
+                evicted.markEvicted();     // so it can't be found in the identity table either
+                map.remove(keys[hand]);
+            }
+            keys[hand] = key;
+            values[hand] = value;
+            hand = (hand + 1) % values.length;
+            map.put(key, value);
+        }
+        if (evicted != null) {
+            evictionListener.accept(evicted);
+        }
+        return value;
+    }
+
+    /**
+     * Ensure that @param value , cached under @param pattern , will never be evicted.  Pinned patterns are
+     * removed from the clock, and so don't count towards the capacity of the cache.
+     *
+     * @return false if @param value is no longer cached under @param pattern .
+     */
+    synchronized boolean pin(String pattern, RateLimitedLogWithPattern value) {
+        if (get(pattern) != value) {
+            return false;
+        }
+        for (int i = 0; i < used; i++) {
+            if (values[i] == value) {
+                // fill the gap with the last slot in use, so the clock's slots remain contiguous
+                used--;
+                keys[i] = keys[used];
+                values[i] = values[used];
+                keys[used] = null;
+                values[used] = null;
+                break;
+            }
+        }
+        return true;    // if it wasn't found, it was already pinned
+    }
+
+    int size() {
+        return map.size();
+    }
+
+    /**
+     * A key matching any string with the same first maxKeyLength characters.  Keys stored in the map are
+     * immutable; each thread has a single mutable key, which it sets for the duration of a lookup.
+     */
+    static final class PrefixKey {
+        private @Nullable String string; // mutable, for lookup keys only
+        private int length; // mutable, for lookup keys only
+        private int hash; // mutable, for lookup keys only
+
+        private PrefixKey() {
+        }
+
+        PrefixKey(String string, int maxKeyLength) {
+            set(string, maxKeyLength);
+        }
+
+        private void set(String string, int maxKeyLength) {
+            int length = Math.min(string.length(), maxKeyLength);
+            int hash = 0;
+            for (int i = 0; i < length; i++) {
+                hash = 31 * hash + string.charAt(i);
+            }
+            this.string = string;
+            this.length = length;
+            this.hash = hash;
+        }
+
+        private void clear() {
+            this.string = null;
+        }
+
+        @Override
+        public boolean equals(@Nullable Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof PrefixKey)) {
+                return false;
+            }
+            PrefixKey other = (PrefixKey) o;
+            return length == other.length && hash == other.hash && string != null && other.string != null
+                    && string.regionMatches(0, other.string, 0, length);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    private static final class IdentityEntry {
+        private final String key;
+        private final RateLimitedLogWithPattern value;
+
+        private IdentityEntry(String key, RateLimitedLogWithPattern value) {
+            this.key = key;
+            this.value = value;
+        }
+    }
+}
@@ -0,0 +1,178 @@
+package com.swrve.ratelimitedlogger;
+
+import edu.umd.cs.findbugs.annotations.Nullable;
+import net.jcip.annotations.ThreadSafe;
+
+/**
+ * Infers a log pattern from a message which has accidentally had variable data interpolated into it, as in
+ * <code>"failed for user " + id</code>, by replacing the variable data with "{}".  Numbers, hex strings, UUIDs,
+ * IP addresses and quoted substrings are replaced, so that all of the messages from one call site map to the
+ * same pattern.  For example, "failed for user 1234 at 10.0.0.1" becomes "failed for user {} at {}".
+ *
+ * Only tokens which start and end on a word boundary are replaced, so "user1" and "deadline" are left alone.
+ *
+ * The message is scanned once, and nothing is allocated unless a replacement is made.
+ */
+@ThreadSafe
+final class PatternNormaliser {
+    private static final String PLACEHOLDER = "{}";
+
+    /**
+     * Tokens longer than this are not treated as variable data.  The longest we expect to replace is an IPv6
+     * address with a port number; the limit also keeps scanning linear in the length of the message.
+     */
+    private static final int MAX_TOKEN_LENGTH = 64;
+
+    private PatternNormaliser() {
+    }
+
+    /**
+     * @return the first @param maxLength characters of @param message with their variable data replaced, or
+     * @param message itself, untruncated, if there was none.
+     */
+    static String normalise(String message, int maxLength) {
+        int length = Math.min(message.length(), maxLength);
+        @Nullable StringBuilder out = null;
+        int copiedUpTo = 0;     // characters before this have been appended to out, or replaced
+        int i = 0;
+        while (i < length) {
+            char c = message.charAt(i);
+            if (!isWordStart(message, i)) {
+                i++;
+                continue;
+            }
+            int end;
+            if (c == '\'' || c == '"') {
+                end = quotedTokenEnd(message, i, c, length);
+            } else if (isHexDigit(c)) {
+                end = variableTokenEnd(message, i, length);
+            } else {
+                end = -1;
+            }
+            if (end < 0) {
+                i++;
+                continue;
+            }
+            if (out == null) {
+                out = new StringBuilder(length);
+            }
+            out.append(message, copiedUpTo, i);
+            if (c == '\'' || c == '"') {
+                out.append(c).append(PLACEHOLDER).append(c);
+            } else {
+                out.append(PLACEHOLDER);
+            }
+            copiedUpTo = end;
+            i = end;
+        }
+        if (out == null) {
+            return message;
+        }
+        out.append(message, copiedUpTo, length);
+        return out.toString();
+    }
+
+    /**
+     * @return the index after the closing quote of a quoted substring starting with the quote @param quote at
+     * @param start , or -1 if there's no closing quote followed by a word boundary.  Apostrophes within words,
+     * as in "can't", don't count as quotes, since they are not at the start of a word.
+     */
+    private static int quotedTokenEnd(String message, int start, char quote, int length) {
+        for (int i = start + 1; i < length; i++) {
+            if (message.charAt(i) == quote) {
+                return isWordEnd(message, i + 1, length) ? i + 1 : -1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return the index after the number, hex string, UUID or IP address starting at @param start , or -1 if
+     * there isn't one.  Trailing separators, as in "user 1234.", are not part of the token.
+     */
+    private static int variableTokenEnd(String message, int start, int length) {
+        int limit = Math.min(length, start + MAX_TOKEN_LENGTH + 1);
+        int end = start;
+        while (end < limit && (isHexDigit(message.charAt(end)) || isSeparator(message.charAt(end))
+                || (end == start + 1 && (message.charAt(end) == 'x' || message.charAt(end) == 'X')))) {
+            end++;
+        }
+        while (end > start && isSeparator(message.charAt(end - 1))) {
+            end--;
+        }
+        if (end - start > MAX_TOKEN_LENGTH || !isWordEnd(message, end, length)) {
+            return -1;
+        }
+        return isVariable(message, start, end) ? end : -1;
+    }
+
+    private static boolean isVariable(String message, int start, int end) {
+        int digits = 0;
+        int letters = 0;
+        int dashes = 0;
+        int dots = 0;
+        int colons = 0;
+        for (int i = start; i < end; i++) {
+            char c = message.charAt(i);
+            if (c >= '0' && c <= '9') {
+                digits++;
+            } else if (c == '-') {
+                dashes++;
+            } else if (c == '.') {
+                dots++;
+            } else if (c == ':') {
+                colons++;
+            } else if (c != 'x' && c != 'X') {
+                letters++;
+            }
+        }
+        int length = end - start;
+        if (length > 2 && message.charAt(start) == '0'
+                && (message.charAt(start + 1) == 'x' || message.charAt(start + 1) == 'X')) {
+            return digits + letters == length - 1;     // 0x1f
+        }
+        if (digits + letters + dashes + dots + colons != length) {
+            return false;      // an 'x' elsewhere
+        }
+        if (length == 36 && dashes == 4 && dots == 0 && colons == 0) {
+            return isUuid(message, start);             // 123e4567-e89b-12d3-a456-426614174000
+        }
+        if (letters == 0) {
+            return digits > 0;                         // 1234, 1.5, 10.0.0.1:8080, 2018-01-31, 12:34:56
+        }
+        if (colons >= 2 && dashes == 0 && digits > 0) {
+            return true;                               // fe80::1
+        }
+        return dashes == 0 && dots == 0 && colons == 0 && digits > 0;  // 1a2b3c
+    }
+
+    private static boolean isUuid(String message, int start) {
+        for (int i = 0; i < 36; i++) {
+            boolean dash = (i == 8 || i == 13 || i == 18 || i == 23);
+            if (dash != (message.charAt(start + i) == '-')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isWordStart(String message, int i) {
+        return i == 0 || !isWordChar(message.charAt(i - 1));
+    }
+
+    private static boolean isWordEnd(String message, int i, int length) {
+        return i == length || !isWordChar(message.charAt(i));
+    }
+
+    private static boolean isWordChar(char c) {
+        return Character.isLetterOrDigit(c) || c == '_';
+    }
+
+    private static boolean isHexDigit(char c) {
+        return (c >= '0' && c <= '9') || (c >= 'a' && c <= 'f') || (c >= 'A' && c <= 'F');
+    }
+
+    private static boolean isSeparator(char c) {
+        return c == '.' || c == ':' || c == '-';
+    }
+}
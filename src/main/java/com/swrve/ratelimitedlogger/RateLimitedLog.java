@@ -1,11 +1,16 @@
 package com.swrve.ratelimitedlogger;
 
 import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.slf4j.MDC;
 import org.slf4j.Marker;
 
+import edu.umd.cs.findbugs.annotations.Nullable;
 import net.jcip.annotations.ThreadSafe;
+import java.time.Duration;
+import java.util.Arrays;
 import java.util.Objects;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * An SLF4J-compatible API for rate-limited logging.  Example usage:
@@ -40,6 +45,19 @@ import java.util.concurrent.ConcurrentHashMap;
  * Where performance is critical, note that you can obtain a reference to the RateLimitedLogWithPattern object
  * for an individual log template, which will avoid a ConcurrentHashMap lookup.
  *
+ * If built with skipDisabledLevels(), logs at levels which the wrapped Logger has disabled are dropped before
+ * any rate-limiting state is created for them.  This applies to the methods which don't take a Marker, since
+ * Marker-based filtering may enable a log at an otherwise-disabled level.
+ *
+ * If built with limitPerKey(), each pattern is rate-limited separately for each value of one of its arguments,
+ * such as a tenant ID, so that logs for one tenant cannot crowd out those for others.  limitPerMdcKeys() does the
+ * same using values in the SLF4J MDC, such as a tenant ID set by a request filter.
+ *
+ * If built with fingerprintExceptions(), the methods which take a Throwable rate-limit each pattern separately
+ * for each distinct exception, so that a storm of one exception does not hide another.
+ *
+ * A RateLimitedLog which is not stored in a static field should be closed once it's no longer needed; see close().
+ *
  * The RateLimitedLog objects are thread-safe.
  */
 @ThreadSafe
@@ -60,18 +78,55 @@ public class RateLimitedLog implements Logger {
      * Impose a limit of this many characters in the knownPattern hash; this helps avoid
      * a situation where an already-interpolated string is accidentally being used as a
      * pattern, and some very large strings have been interpolated into it, resulting in
-     * high memory consumption and GC pressure.
+     * high memory consumption and GC pressure.  A CountMinSketch hashes no more of a message, for the same reason.
+     */
+    static final int MAX_PATTERN_LENGTH = 8192;
+
+    /**
+     * The pattern of the single RateLimitedLogWithPattern used for all messages when they are counted in a
+     * count-min sketch.  It appears in summaries of suppressed logs.
      */
-    private static final int MAX_PATTERN_LENGTH = 8192;
+    private static final String SKETCHED_PATTERN = "(sketched messages)";
 
-    final ConcurrentHashMap<String, RateLimitedLogWithPattern> knownPatterns
-            = new ConcurrentHashMap<>();
+    final PatternCache knownPatterns = new PatternCache(MAX_PATTERNS_PER_LOG, MAX_PATTERN_LENGTH, this::evicted);
+
+    /**
+     * Set once we've warned that patterns are being evicted from knownPatterns.
+     */
+    private final AtomicBoolean warnedOfEviction = new AtomicBoolean(false); // mutable
 
     private final Logger logger;
     private final RateLimitedLogWithPattern.RateAndPeriod rateAndPeriod;
-    private final Registry registry;
+    /**
+     * Where this log's patterns are registered for periodic resets.
+     */
+    final Registry.Scope scope;
     private final Stopwatch stopwatch;
-    private final CounterMetric stats;
+    private final @Nullable LevelMetrics stats;
+    private final LevelFilter levelFilter;
+
+    /**
+     * The limit on total logs across all of this log's patterns, if any.
+     */
+    final @Nullable LogBudget budget;
+
+    private final @Nullable AdaptiveRate adaptiveRate;
+
+    /**
+     * Where logs which are let through are emitted, if they are emitted asynchronously.
+     */
+    private final @Nullable AsyncEmitter emitter;
+
+    /**
+     * If messages are counted in a count-min sketch, rather than individually, the single pattern which stands for
+     * all of them; see RateLimitedLogBuilder.withCountMinSketch().
+     */
+    private final @Nullable RateLimitedLogWithPattern sketched;
+
+    /**
+     * Should variable data in messages be replaced with placeholders, to infer their patterns?  See PatternNormaliser.
+     */
+    private final boolean normalisePatterns;
 
     /**
      * Start building a new RateLimitedLog, wrapping the SLF4J logger @param logger.
@@ -80,14 +135,43 @@ public class RateLimitedLog implements Logger {
         return new RateLimitedLogBuilder.MissingRateAndPeriod(Objects.requireNonNull(logger));
     }
 
+    /**
+     * Limit the total number of logs emitted by every RateLimitedLog in this JVM, across all of their patterns, to
+     * @param maxRate in every @param period , in addition to their own limits.  Logs suppressed by this limit are
+     * reported in a single summary at the end of each period.  This can only be configured once, typically at
+     * startup.
+     *
+     * @throws IllegalStateException if the global limit has already been configured.
+     */
+    public static void setGlobalLimit(int maxRate, Duration period) {
+        if (maxRate <= 0) {
+            throw new IllegalArgumentException("maxRate must be > 0");
+        }
+        if (period.toMillis() <= 0) {
+            throw new IllegalArgumentException("period must be non-zero");
+        }
+        REGISTRY.setGlobalBudget(new LogBudget(maxRate, period, new Stopwatch(),
+                LoggerFactory.getLogger(RateLimitedLog.class), "across all rate-limited logs"), period);
+    }
+
     // package-local ctor called by the Builder
     @SuppressWarnings("SameParameterValue")
-    RateLimitedLog(Logger logger, RateLimitedLogWithPattern.RateAndPeriod rateAndPeriod, Stopwatch stopwatch, CounterMetric stats, Registry registry) {
+    RateLimitedLog(Logger logger, RateLimitedLogWithPattern.RateAndPeriod rateAndPeriod, Stopwatch stopwatch,
+                   @Nullable LevelMetrics stats, LevelFilter levelFilter, @Nullable LogBudget budget,
+                   @Nullable AdaptiveRate adaptiveRate, @Nullable AsyncEmitter emitter, @Nullable CountMinSketch sketch,
+                   boolean normalisePatterns, Registry.Scope scope) {
         this.logger = logger;
         this.rateAndPeriod = rateAndPeriod;
-        this.registry = registry;
+        this.scope = scope;
         this.stats = stats;
         this.stopwatch = stopwatch;
+        this.levelFilter = levelFilter;
+        this.budget = budget;
+        this.adaptiveRate = adaptiveRate;
+        this.emitter = emitter;
+        this.normalisePatterns = normalisePatterns;
+        this.sketched = (sketch == null) ? null : new RateLimitedLogWithPattern(SKETCHED_PATTERN, rateAndPeriod, scope,
+                stats, budget, adaptiveRate, emitter, sketch, stopwatch, logger);
     }
 
     @Override
@@ -102,27 +186,37 @@ public class RateLimitedLog implements Logger {
 
     @Override
     public void trace(String msg) {
-        get(msg).trace(msg);
+        if (levelFilter.isEnabled(Level.TRACE)) {
+            getKeyed(msg).get(Level.TRACE).logAs(msg);
+        }
     }
 
     @Override
     public void trace(String format, Object arg) {
-        get(format).trace(arg);
+        if (levelFilter.isEnabled(Level.TRACE)) {
+            getKeyed(format, arg).get(Level.TRACE).logAs(format, arg);
+        }
     }
 
     @Override
     public void trace(String format, Object arg1, Object arg2) {
-        get(format).trace(arg1, arg2);
+        if (levelFilter.isEnabled(Level.TRACE)) {
+            getKeyed(format, arg1, arg2).get(Level.TRACE).logAs(format, arg1, arg2);
+        }
     }
 
     @Override
     public void trace(String format, Object... arguments) {
-        get(format).trace(arguments);
+        if (levelFilter.isEnabled(Level.TRACE)) {
+            getKeyed(format, arguments).get(Level.TRACE).logAs(format, arguments);
+        }
     }
 
     @Override
     public void trace(String msg, Throwable t) {
-        get(msg).trace(t);
+        if (levelFilter.isEnabled(Level.TRACE)) {
+            getKeyed(msg).forThrowable(t).get(Level.TRACE).logAs(msg, t);
+        }
     }
 
     @Override
@@ -132,27 +226,27 @@ public class RateLimitedLog implements Logger {
 
     @Override
     public void trace(Marker marker, String msg) {
-        get(msg).trace(marker, msg);
+        getKeyed(msg).get(Level.TRACE).logAs(msg, marker);
     }
 
     @Override
     public void trace(Marker marker, String format, Object arg) {
-        get(format).trace(marker, arg);
+        getKeyed(format, arg).get(Level.TRACE).logAs(format, marker, arg);
     }
 
     @Override
     public void trace(Marker marker, String format, Object arg1, Object arg2) {
-        get(format).trace(marker, arg1, arg2);
+        getKeyed(format, arg1, arg2).get(Level.TRACE).logAs(format, marker, arg1, arg2);
     }
 
     @Override
     public void trace(Marker marker, String format, Object... argArray) {
-        get(format).trace(marker, argArray);
+        getKeyed(format, argArray).get(Level.TRACE).logAs(format, marker, argArray);
     }
 
     @Override
     public void trace(Marker marker, String msg, Throwable t) {
-        get(msg).trace(marker, t);
+        getKeyed(msg).forThrowable(t).get(Level.TRACE).logAs(msg, marker, t);
     }
 
     @Override
@@ -162,27 +256,37 @@ public class RateLimitedLog implements Logger {
 
     @Override
     public void debug(String msg) {
-        get(msg).debug(msg);
+        if (levelFilter.isEnabled(Level.DEBUG)) {
+            getKeyed(msg).get(Level.DEBUG).logAs(msg);
+        }
     }
 
     @Override
     public void debug(String format, Object arg) {
-        get(format).debug(arg);
+        if (levelFilter.isEnabled(Level.DEBUG)) {
+            getKeyed(format, arg).get(Level.DEBUG).logAs(format, arg);
+        }
     }
 
     @Override
     public void debug(String format, Object arg1, Object arg2) {
-        get(format).debug(arg1, arg2);
+        if (levelFilter.isEnabled(Level.DEBUG)) {
+            getKeyed(format, arg1, arg2).get(Level.DEBUG).logAs(format, arg1, arg2);
+        }
     }
 
     @Override
     public void debug(String format, Object... arguments) {
-        get(format).debug(arguments);
+        if (levelFilter.isEnabled(Level.DEBUG)) {
+            getKeyed(format, arguments).get(Level.DEBUG).logAs(format, arguments);
+        }
     }
 
     @Override
     public void debug(String msg, Throwable t) {
-        get(msg).debug(t);
+        if (levelFilter.isEnabled(Level.DEBUG)) {
+            getKeyed(msg).forThrowable(t).get(Level.DEBUG).logAs(msg, t);
+        }
     }
 
     @Override
@@ -192,27 +296,27 @@ public class RateLimitedLog implements Logger {
 
     @Override
     public void debug(Marker marker, String msg) {
-        get(msg).debug(marker, msg);
+        getKeyed(msg).get(Level.DEBUG).logAs(msg, marker);
     }
 
     @Override
     public void debug(Marker marker, String format, Object arg) {
-        get(format).debug(marker, arg);
+        getKeyed(format, arg).get(Level.DEBUG).logAs(format, marker, arg);
     }
 
     @Override
     public void debug(Marker marker, String format, Object arg1, Object arg2) {
-        get(format).debug(marker, arg1, arg2);
+        getKeyed(format, arg1, arg2).get(Level.DEBUG).logAs(format, marker, arg1, arg2);
     }
 
     @Override
     public void debug(Marker marker, String format, Object... argArray) {
-        get(format).debug(marker, argArray);
+        getKeyed(format, argArray).get(Level.DEBUG).logAs(format, marker, argArray);
     }
 
     @Override
     public void debug(Marker marker, String msg, Throwable t) {
-        get(msg).debug(marker, t);
+        getKeyed(msg).forThrowable(t).get(Level.DEBUG).logAs(msg, marker, t);
     }
 
     @Override
@@ -222,27 +326,37 @@ public class RateLimitedLog implements Logger {
 
     @Override
     public void info(String msg) {
-        get(msg).info(msg);
+        if (levelFilter.isEnabled(Level.INFO)) {
+            getKeyed(msg).get(Level.INFO).logAs(msg);
+        }
     }
 
     @Override
     public void info(String format, Object arg) {
-        get(format).info(arg);
+        if (levelFilter.isEnabled(Level.INFO)) {
+            getKeyed(format, arg).get(Level.INFO).logAs(format, arg);
+        }
     }
 
     @Override
     public void info(String format, Object arg1, Object arg2) {
-        get(format).info(arg1, arg2);
+        if (levelFilter.isEnabled(Level.INFO)) {
+            getKeyed(format, arg1, arg2).get(Level.INFO).logAs(format, arg1, arg2);
+        }
     }
 
     @Override
     public void info(String format, Object... arguments) {
-        get(format).info(arguments);
+        if (levelFilter.isEnabled(Level.INFO)) {
+            getKeyed(format, arguments).get(Level.INFO).logAs(format, arguments);
+        }
     }
 
     @Override
     public void info(String msg, Throwable t) {
-        get(msg).info(t);
+        if (levelFilter.isEnabled(Level.INFO)) {
+            getKeyed(msg).forThrowable(t).get(Level.INFO).logAs(msg, t);
+        }
     }
 
     @Override
@@ -252,27 +366,27 @@ public class RateLimitedLog implements Logger {
 
     @Override
     public void info(Marker marker, String msg) {
-        get(msg).info(marker, msg);
+        getKeyed(msg).get(Level.INFO).logAs(msg, marker);
     }
 
     @Override
     public void info(Marker marker, String format, Object arg) {
-        get(format).info(marker, arg);
+        getKeyed(format, arg).get(Level.INFO).logAs(format, marker, arg);
     }
 
     @Override
     public void info(Marker marker, String format, Object arg1, Object arg2) {
-        get(format).info(marker, arg1, arg2);
+        getKeyed(format, arg1, arg2).get(Level.INFO).logAs(format, marker, arg1, arg2);
     }
 
     @Override
     public void info(Marker marker, String format, Object... argArray) {
-        get(format).info(marker, argArray);
+        getKeyed(format, argArray).get(Level.INFO).logAs(format, marker, argArray);
     }
 
     @Override
     public void info(Marker marker, String msg, Throwable t) {
-        get(msg).info(marker, t);
+        getKeyed(msg).forThrowable(t).get(Level.INFO).logAs(msg, marker, t);
     }
     @Override
     public boolean isWarnEnabled() {
@@ -281,27 +395,37 @@ public class RateLimitedLog implements Logger {
 
     @Override
     public void warn(String msg) {
-        get(msg).warn(msg);
+        if (levelFilter.isEnabled(Level.WARN)) {
+            getKeyed(msg).get(Level.WARN).logAs(msg);
+        }
     }
 
     @Override
     public void warn(String format, Object arg) {
-        get(format).warn(arg);
+        if (levelFilter.isEnabled(Level.WARN)) {
+            getKeyed(format, arg).get(Level.WARN).logAs(format, arg);
+        }
     }
 
     @Override
     public void warn(String format, Object arg1, Object arg2) {
-        get(format).warn(arg1, arg2);
+        if (levelFilter.isEnabled(Level.WARN)) {
+            getKeyed(format, arg1, arg2).get(Level.WARN).logAs(format, arg1, arg2);
+        }
     }
 
     @Override
     public void warn(String format, Object... arguments) {
-        get(format).warn(arguments);
+        if (levelFilter.isEnabled(Level.WARN)) {
+            getKeyed(format, arguments).get(Level.WARN).logAs(format, arguments);
+        }
     }
 
     @Override
     public void warn(String msg, Throwable t) {
-        get(msg).warn(t);
+        if (levelFilter.isEnabled(Level.WARN)) {
+            getKeyed(msg).forThrowable(t).get(Level.WARN).logAs(msg, t);
+        }
     }
 
     @Override
@@ -311,27 +435,27 @@ public class RateLimitedLog implements Logger {
 
     @Override
     public void warn(Marker marker, String msg) {
-        get(msg).warn(marker, msg);
+        getKeyed(msg).get(Level.WARN).logAs(msg, marker);
     }
 
     @Override
     public void warn(Marker marker, String format, Object arg) {
-        get(format).warn(marker, arg);
+        getKeyed(format, arg).get(Level.WARN).logAs(format, marker, arg);
     }
 
     @Override
     public void warn(Marker marker, String format, Object arg1, Object arg2) {
-        get(format).warn(marker, arg1, arg2);
+        getKeyed(format, arg1, arg2).get(Level.WARN).logAs(format, marker, arg1, arg2);
     }
 
     @Override
     public void warn(Marker marker, String format, Object... argArray) {
-        get(format).warn(marker, argArray);
+        getKeyed(format, argArray).get(Level.WARN).logAs(format, marker, argArray);
     }
 
     @Override
     public void warn(Marker marker, String msg, Throwable t) {
-        get(msg).warn(marker, t);
+        getKeyed(msg).forThrowable(t).get(Level.WARN).logAs(msg, marker, t);
     }
 
     @Override
@@ -341,27 +465,37 @@ public class RateLimitedLog implements Logger {
 
     @Override
     public void error(String msg) {
-        get(msg).error(msg);
+        if (levelFilter.isEnabled(Level.ERROR)) {
+            getKeyed(msg).get(Level.ERROR).logAs(msg);
+        }
     }
 
     @Override
     public void error(String format, Object arg) {
-        get(format).error(arg);
+        if (levelFilter.isEnabled(Level.ERROR)) {
+            getKeyed(format, arg).get(Level.ERROR).logAs(format, arg);
+        }
     }
 
     @Override
     public void error(String format, Object arg1, Object arg2) {
-        get(format).error(arg1, arg2);
+        if (levelFilter.isEnabled(Level.ERROR)) {
+            getKeyed(format, arg1, arg2).get(Level.ERROR).logAs(format, arg1, arg2);
+        }
     }
 
     @Override
     public void error(String format, Object... arguments) {
-        get(format).error(arguments);
+        if (levelFilter.isEnabled(Level.ERROR)) {
+            getKeyed(format, arguments).get(Level.ERROR).logAs(format, arguments);
+        }
     }
 
     @Override
     public void error(String msg, Throwable t) {
-        get(msg).error(t);
+        if (levelFilter.isEnabled(Level.ERROR)) {
+            getKeyed(msg).forThrowable(t).get(Level.ERROR).logAs(msg, t);
+        }
     }
 
     @Override
@@ -371,27 +505,27 @@ public class RateLimitedLog implements Logger {
 
     @Override
     public void error(Marker marker, String msg) {
-        get(msg).error(marker, msg);
+        getKeyed(msg).get(Level.ERROR).logAs(msg, marker);
     }
 
     @Override
     public void error(Marker marker, String format, Object arg) {
-        get(format).error(marker, arg);
+        getKeyed(format, arg).get(Level.ERROR).logAs(format, marker, arg);
     }
 
     @Override
     public void error(Marker marker, String format, Object arg1, Object arg2) {
-        get(format).error(marker, arg1, arg2);
+        getKeyed(format, arg1, arg2).get(Level.ERROR).logAs(format, marker, arg1, arg2);
     }
 
     @Override
     public void error(Marker marker, String format, Object... argArray) {
-        get(format).error(marker, argArray);
+        getKeyed(format, argArray).get(Level.ERROR).logAs(format, marker, argArray);
     }
 
     @Override
     public void error(Marker marker, String msg, Throwable t) {
-        get(msg).error(marker, t);
+        getKeyed(msg).forThrowable(t).get(Level.ERROR).logAs(msg, marker, t);
     }
 
     /**
@@ -404,32 +538,135 @@ public class RateLimitedLog implements Logger {
      * The first 8192 characters of the message are used as the key, so if an extremely long log pattern
      * is used, with differences only after that threshold, they will share the same rate limiter.
      *
+     * If the RateLimitedLog was built with normalisePatterns(), variable data such as numbers is replaced
+     * in the key, so messages which differ only in that data share the same rate limiter.
+     *
+     * If the RateLimitedLog was built with withCountMinSketch(), all messages share one RateLimitedLogWithPattern,
+     * which counts each message in the sketch, so caching the result does not avoid that lookup.
+     *
      * @throws IllegalStateException if we exceed the limit on number of RateLimitedLogWithPattern objects
      * in any one period; if this happens, it's probable that an already-interpolated string is
      * accidentally being used as a log pattern.
      */
     public RateLimitedLogWithPattern get(final String message) {
-        String key = (message.length() > MAX_PATTERN_LENGTH) ? message.substring(0, MAX_PATTERN_LENGTH) : message;
+        // share the rate limit, but still log the message as it was
+        return getLimiter(message).withLoggedMessage(message);
+    }
+
+    /**
+     * @return the pattern whose rate limit @param message shares: its own pattern, the pattern it was normalised to,
+     * or the sketched pattern.  That pattern may log a different message, so the caller must pass the message to
+     * its LogWithPatternAndLevel, rather than logging through the pattern.
+     */
+    private RateLimitedLogWithPattern getLimiter(String message) {
+        if (sketched != null) {
+            return sketched;
+        }
+
+        // fastest path: the same String instance, typically a literal, as last time
+        RateLimitedLogWithPattern identical = knownPatterns.getIdentical(message);
+        if (identical != null) {
+            return identical;
+        }
 
+        if (normalisePatterns) {
+            String pattern = PatternNormaliser.normalise(message, MAX_PATTERN_LENGTH);
+            //noinspection StringEquality
+            if (pattern != message) {
+                return get(pattern, false);
+            }
+        }
+        return get(message, true);
+    }
+
+    /**
+     * @return the pattern for @param message , creating it if necessary.  If it already existed, and
+     * @param rememberIdentity is set, add it to the identity table.
+     */
+    private RateLimitedLogWithPattern get(String message, boolean rememberIdentity) {
         // fast path: hopefully we can do this without creating a Supplier object
-        RateLimitedLogWithPattern got = knownPatterns.get(key);
+        RateLimitedLogWithPattern got = knownPatterns.get(message);
         if (got != null) {
+            if (rememberIdentity && message.length() < MAX_PATTERN_LENGTH) {
+                // this pattern has been seen before, so it's probably a literal; find it by identity next time.
+                // Over-long messages are almost certainly interpolated, and not worth holding on to
+                knownPatterns.putIdentical(message, got);
+            }
             return got;
         }
 
-        // before we create another one, check cache capacity first
-        if (knownPatterns.size() > MAX_PATTERNS_PER_LOG) {
-            outOfCacheCapacity();
+        // slow path: create a RateLimitedLogWithPattern
+        RateLimitedLogWithPattern newValue = new RateLimitedLogWithPattern(message, rateAndPeriod, scope, stats, budget,
+                adaptiveRate, emitter, null, stopwatch, logger);
+        return knownPatterns.putIfAbsent(message, newValue);
+    }
+
+    /**
+     * @return the pattern for @param message , for the key in the logging thread's MDC, if logs are rate-limited
+     * separately for each combination of MDC values.
+     */
+    private RateLimitedLogWithPattern getKeyed(String message) {
+        RateLimitedLogWithPattern pattern = getLimiter(message);
+        return (rateAndPeriod.options.mdcKeys.length == 0) ? pattern : pattern.forKey(mdcKey());
+    }
+
+    /**
+     * @return the values of the MDC keys: the value itself if there is only one key, to avoid allocating; a List
+     * of the values otherwise; or null if none of them are set.
+     */
+    private @Nullable Object mdcKey() {
+        String[] mdcKeys = rateAndPeriod.options.mdcKeys;
+        if (mdcKeys.length == 1) {
+            return MDC.get(mdcKeys[0]);
+        }
+        String[] values = new String[mdcKeys.length];
+        boolean anySet = false;
+        for (int i = 0; i < mdcKeys.length; i++) {
+            values[i] = MDC.get(mdcKeys[i]);
+            anySet |= (values[i] != null);
+        }
+        return anySet ? Arrays.asList(values) : null;
+    }
+
+    /**
+     * @return the pattern for @param format , for the key in @param arg , if logs are rate-limited separately for
+     * each key, and the key is the first argument.
+     */
+    private RateLimitedLogWithPattern getKeyed(String format, Object arg) {
+        if (rateAndPeriod.options.mdcKeys.length > 0) {
+            return getKeyed(format);
         }
+        RateLimitedLogWithPattern pattern = getLimiter(format);
+        return (rateAndPeriod.options.maxKeys > 0 && rateAndPeriod.options.keyArgument == 0)
+                ? pattern.forKey(arg) : pattern;
+    }
 
-        // slow path: create a RateLimitedLogWithPattern
-        RateLimitedLogWithPattern newValue = new RateLimitedLogWithPattern(message, rateAndPeriod, registry, stats, stopwatch, logger);
-        RateLimitedLogWithPattern oldValue = knownPatterns.putIfAbsent(key, newValue);
-        if (oldValue != null) {
-            return oldValue;
-        } else {
-            return newValue;
+    private RateLimitedLogWithPattern getKeyed(String format, Object arg1, Object arg2) {
+        if (rateAndPeriod.options.mdcKeys.length > 0) {
+            return getKeyed(format);
+        }
+        RateLimitedLogWithPattern pattern = getLimiter(format);
+        if (rateAndPeriod.options.maxKeys == 0) {
+            return pattern;
         }
+        switch (rateAndPeriod.options.keyArgument) {
+            case 0:
+                return pattern.forKey(arg1);
+            case 1:
+                return pattern.forKey(arg2);
+            default:
+                return pattern;
+        }
+    }
+
+    private RateLimitedLogWithPattern getKeyed(String format, @Nullable Object[] args) {
+        if (rateAndPeriod.options.mdcKeys.length > 0) {
+            return getKeyed(format);
+        }
+        RateLimitedLogWithPattern pattern = getLimiter(format);
+        // a caller may pass a null array as the varargs, which SLF4J accepts
+        return (rateAndPeriod.options.maxKeys > 0 && args != null && rateAndPeriod.options.keyArgument < args.length)
+                ? pattern.forKey(args[rateAndPeriod.options.keyArgument]) : pattern;
     }
 
     /**
@@ -445,25 +682,52 @@ public class RateLimitedLog implements Logger {
      * accidentally being used as a log pattern.
      */
     public LogWithPatternAndLevel get(String pattern, Level level) {
-        return get(pattern).get(level);
+        return getLimiter(pattern).get(level);
     }
 
     /**
-     * We've run out of capacity in our cache of RateLimitedLogWithPattern objects.  This probably
-     * means that the caller is accidentally calling us with an already-interpolated string, instead
-     * of using the pattern as the key and letting us do the interpolation.  Don't lose data;
-     * instead, fall back to flushing the entire cache but carrying on.  The worst-case scenario
-     * here is that we flush the logs far more frequently than their requested durations, potentially
-     * allowing the logging to impact throughput, but we don't lose any log data.
+     * @return a LogWithPatternAndLevel object for the supplied @param pattern and @param level , which will
+     * remain in use for the lifetime of this RateLimitedLog.  Unlike patterns looked up by get(), the pattern
+     * is never evicted from this RateLimitedLog's cache, so the handle can safely be stored in a static field;
+     * this is what the code generated for @LogPattern constants does.  The pattern is used as it is, even if
+     * this RateLimitedLog was built with normalisePatterns(), and is counted exactly, even if it was built with
+     * withCountMinSketch().
      */
-    private void outOfCacheCapacity() {
-        synchronized (knownPatterns) {
-            if (knownPatterns.size() > MAX_PATTERNS_PER_LOG) {
-                logger.warn("out of capacity in RateLimitedLog registry; accidentally " +
-                        "using interpolated strings as patterns?");
-                registry.flush();
-                knownPatterns.clear();
-            }
+    public LogWithPatternAndLevel handle(String pattern, Level level) {
+        RateLimitedLogWithPattern got;
+        do {
+            got = get(pattern, false);
+        } while (!knownPatterns.pin(pattern, got));     // it may have been evicted in the meantime
+        return got.get(level);
+    }
+
+    /**
+     * Report any suppressed logs, and stop resetting this RateLimitedLog's rate limits, so that it can be
+     * garbage-collected.  Otherwise, the Registry which resets it keeps it, and every pattern it has logged, until
+     * the JVM exits; so a RateLimitedLog built for a short-lived object, rather than stored in a static field,
+     * should be closed once it's no longer needed.  It should not be used after it's closed, since its rate limits
+     * would no longer be reset.  If it was built with an AsyncEmitter, this emits the logs waiting in it, and stops
+     * its thread.
+     */
+    public void close() {
+        scope.close();
+    }
+
+    /**
+     * We've run out of capacity in our cache of RateLimitedLogWithPattern objects, and @param pattern has been
+     * evicted.  This probably means that the caller is accidentally calling us with an already-interpolated
+     * string, instead of using the pattern as the key and letting us do the interpolation.  Don't lose data;
+     * instead, report any suppressions of the evicted pattern, and carry on.  Patterns which are used repeatedly
+     * are unlikely to be evicted, so they keep their rate-limiting state.  A LogWithPatternAndLevel which a caller
+     * obtained from an evicted pattern still works: it logs through the pattern cached in its place, sharing its
+     * rate limit.
+     */
+    private void evicted(RateLimitedLogWithPattern pattern) {
+        if (!warnedOfEviction.get() && warnedOfEviction.compareAndSet(false, true)) {
+            logger.warn("out of capacity in RateLimitedLog registry; accidentally " +
+                    "using interpolated strings as patterns?");
         }
+        String message = pattern.getMessage();
+        pattern.unregister(() -> get(message, false));
     }
 }
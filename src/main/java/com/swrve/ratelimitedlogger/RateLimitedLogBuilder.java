@@ -18,6 +18,25 @@ public class RateLimitedLogBuilder {
     private final Duration periodLength;
     private Stopwatch stopwatch = new Stopwatch();
     private @Nullable CounterMetric stats = null;
+    private boolean stripedCounters = false;
+    private @Nullable Duration levelCheckPeriod = null;
+    private RateLimitedLogWithPattern.RateAndPeriod.Algorithm algorithm
+            = RateLimitedLogWithPattern.RateAndPeriod.Algorithm.FIXED_WINDOW;
+    private int burstSize;
+    private int maxAggregateRate = 0;
+    private @Nullable Duration targetLatency = null;
+    private boolean normalisePatterns = false;
+    private @Nullable AsyncEmitter emitter = null;
+    private int summaryTopK = 0;
+    private int sketchWidth = 0;
+    private int sketchDepth = 0;
+    private int fingerprintFrames = 0;
+    private int fullStackTraces = 0;
+    private int maxKeys = 0;
+    private int keyArgument = 0;
+    private String[] mdcKeys = new String[0];
+    private int sampleEveryNth = 0;
+    private double sampleProbability = 0.0;
 
     public static class MissingRateAndPeriod {
         private final Logger logger;
@@ -57,6 +76,7 @@ public class RateLimitedLogBuilder {
         this.logger = logger;
         this.maxRate = maxRate;
         this.periodLength = periodLength;
+        this.burstSize = maxRate;
     }
 
     /**
@@ -69,12 +89,270 @@ public class RateLimitedLogBuilder {
 
     /**
      * Optional: should we record metrics about the call rate using @param stats.  Default is not to record metrics
+     *
+     * One CounterMetric.Handle per log level is obtained from @param stats when the RateLimitedLog is built,
+     * and incremented on every log call thereafter.
      */
     public RateLimitedLogBuilder recordMetrics(CounterMetric stats) {
         this.stats = Objects.requireNonNull(stats);
         return this;
     }
 
+    /**
+     * Optional: count suppressed logs using striped, contention-adaptive counters (as in LongAdder) instead of a
+     * single shared AtomicLong per pattern.  This keeps the suppressed path scalable when many threads hit the
+     * same pattern at once, at the cost of some extra memory for patterns which see contention.  Suppression
+     * counts remain exact, and the first maxRate logs in each period are still emitted.  Default is off.
+     */
+    public RateLimitedLogBuilder withStripedCounters() {
+        this.stripedCounters = true;
+        return this;
+    }
+
+    /**
+     * Optional: skip logs at levels which are disabled on the wrapped Logger, without counting them, recording
+     * metrics, or allocating any rate-limiting state for them.  The enabled levels are cached, and re-read from
+     * the Logger every @param levelCheckPeriod , so configuration changes take effect after up to that delay.
+     * Logs which specify a Marker are not skipped.  Default is to rate-limit logs regardless of level.
+     */
+    public RateLimitedLogBuilder skipDisabledLevels(Duration levelCheckPeriod) {
+        this.levelCheckPeriod = Objects.requireNonNull(levelCheckPeriod);
+        return this;
+    }
+
+    /**
+     * Optional: rate-limit using a token bucket, rather than the default syslog-style fixed window.  Up to
+     * @param burstSize logs may be emitted at once, and the bucket refills steadily at maxRate per period, so
+     * emission is spread out rather than lining up with period boundaries.  Tokens are computed lazily from the
+     * Stopwatch, so no periodic reset is needed; a log summarising any suppressed logs is output just before the
+     * next log which is let through.
+     */
+    public RateLimitedLogBuilder withTokenBucket(int burstSize) {
+        this.algorithm = RateLimitedLogWithPattern.RateAndPeriod.Algorithm.TOKEN_BUCKET;
+        this.burstSize = burstSize;
+        return this;
+    }
+
+    /**
+     * Optional: rate-limit using a sliding window, rather than the default syslog-style fixed window.  This
+     * guarantees that no more than maxRate logs are emitted in any rolling period, whereas a fixed window can
+     * allow up to twice that in a short interval straddling a reset.  As with withTokenBucket(), no periodic
+     * reset is needed; a log summarising any suppressed logs is output just before the next log which is let
+     * through.
+     */
+    public RateLimitedLogBuilder withSlidingWindow() {
+        this.algorithm = RateLimitedLogWithPattern.RateAndPeriod.Algorithm.SLIDING_WINDOW;
+        return this;
+    }
+
+    /**
+     * Optional: reset the default syslog-style fixed window lazily, on the first log after each period expires,
+     * rather than from the Registry's background thread.  The rate limit is the same, but periods are aligned to
+     * the Stopwatch rather than to when each pattern was first seen, and resetting costs nothing for patterns
+     * which are not logged.  As with withTokenBucket(), a log summarising any suppressed logs is output just
+     * before the next log which is let through, rather than at the end of the period.
+     */
+    public RateLimitedLogBuilder withLazyReset() {
+        this.algorithm = RateLimitedLogWithPattern.RateAndPeriod.Algorithm.LAZY_FIXED_WINDOW;
+        return this;
+    }
+
+    /**
+     * Optional: in addition to the limit on each pattern, limit the total number of logs emitted through this
+     * RateLimitedLog, across all patterns, to @param maxAggregateRate in every period.  Logs suppressed by this
+     * limit are reported separately, in a single summary at the end of each period, rather than in the
+     * per-pattern summaries.  Default is no aggregate limit.
+     */
+    public RateLimitedLogBuilder withAggregateLimit(int maxAggregateRate) {
+        if (maxAggregateRate <= 0) {
+            throw new IllegalArgumentException("maxAggregateRate must be > 0");
+        }
+        this.maxAggregateRate = maxAggregateRate;
+        return this;
+    }
+
+    /**
+     * Optional: adapt the rate limit to the latency of the wrapped Logger.  Calls into the Logger are timed, and
+     * while their average latency exceeds @param targetLatency , maxRate is scaled down in proportion (to a
+     * minimum of 1 per period), so that a slow appender holds up fewer threads.  The limit relaxes again as the
+     * latency recovers.  Only supported with the default fixed-window algorithm.  Default is a fixed maxRate.
+     */
+    public RateLimitedLogBuilder adaptToLatency(Duration targetLatency) {
+        this.targetLatency = Objects.requireNonNull(targetLatency);
+        return this;
+    }
+
+    /**
+     * Optional: infer the pattern of messages which have accidentally had variable data interpolated into them,
+     * as in <code>rateLimitedLog.info("failed for user " + id)</code>.  Numbers, hex strings, UUIDs, IP addresses
+     * and quoted substrings are replaced with placeholders in the key used to find the message's rate limiter,
+     * so that such messages share one limiter rather than filling up the RateLimitedLog's cache of patterns.
+     * The messages themselves are still logged as they were.  This costs a scan of every message logged.
+     * Default is to use each message as its own pattern.
+     */
+    public RateLimitedLogBuilder normalisePatterns() {
+        this.normalisePatterns = true;
+        return this;
+    }
+
+    /**
+     * Optional: when a log includes a Throwable, rate-limit it by its pattern and the exception's fingerprint,
+     * rather than by its pattern alone, so that a storm of one exception is suppressed without hiding a different
+     * exception logged with the same message.  The fingerprint covers the exception's class, and the class and
+     * top @param stackFrames stack frames of its root cause.  Up to 100 fingerprints are tracked per pattern;
+     * further exceptions share the pattern's own rate limit.  This costs a copy of the root cause's stack trace
+     * for every log with a Throwable.  Not supported with withCountMinSketch().  Default is to rate-limit by
+     * pattern alone.
+     */
+    public RateLimitedLogBuilder fingerprintExceptions(int stackFrames) {
+        if (stackFrames <= 0) {
+            throw new IllegalArgumentException("stackFrames must be > 0");
+        }
+        this.fingerprintFrames = stackFrames;
+        return this;
+    }
+
+    /**
+     * Optional: rate-limit each pattern separately for each value of its argument number @param keyArgument
+     * (counting from 0), such as a tenant or user ID, so that maxRate logs per period are allowed for each key, and
+     * logs for one key can't crowd out those for others.  Up to @param maxKeys keys are tracked per pattern, and
+     * 1000 (or maxKeys, if more) across all patterns; once that many are in use, keys which have not been logged
+     * recently make way for new ones, and new keys which can't displace any share a single overflow rate limit.
+     * Logs with fewer arguments are rate-limited by their pattern alone.  RateLimitedLogWithPattern.forKey() selects
+     * a key explicitly.  Not supported with withCountMinSketch().  Default is to rate-limit by pattern alone.
+     */
+    public RateLimitedLogBuilder limitPerKey(int keyArgument, int maxKeys) {
+        if (keyArgument < 0) {
+            throw new IllegalArgumentException("keyArgument must be >= 0");
+        }
+        if (maxKeys <= 0) {
+            throw new IllegalArgumentException("maxKeys must be > 0");
+        }
+        this.keyArgument = keyArgument;
+        this.maxKeys = maxKeys;
+        return this;
+    }
+
+    /**
+     * Optional: rate-limit each pattern separately for each combination of the values of @param mdcKeys in the
+     * SLF4J MDC of the logging thread, such as a tenant and route, so that limits apply per tenant without changing
+     * the calls which log.  The values are read with MDC.get() on every log, without copying the MDC's map.  As with
+     * limitPerKey(), up to 1000 combinations are tracked across all patterns, the same limit as on the number of
+     * patterns; beyond that, new combinations share a single overflow rate limit.  Logs with none of the keys set are
+     * rate-limited by their pattern alone.  Not supported with limitPerKey(), fingerprintExceptions() or
+     * withCountMinSketch().  Default is to rate-limit by pattern alone.
+     */
+    public RateLimitedLogBuilder limitPerMdcKeys(String... mdcKeys) {
+        if (mdcKeys.length == 0) {
+            throw new IllegalArgumentException("at least one MDC key is required");
+        }
+        for (String mdcKey : mdcKeys) {
+            Objects.requireNonNull(mdcKey);
+        }
+        this.mdcKeys = mdcKeys.clone();
+        return this;
+    }
+
+    /**
+     * Optional: once a pattern has exceeded maxRate in a period, still let through every @param everyNth log over
+     * the limit, rather than suppressing them all until the period ends, so that long periods still show samples
+     * from the middle of an incident.  Sampled logs are tagged with " [sampled 1 in N over the rate limit]", and
+     * are reported separately from the suppressed logs.  They still count towards withAggregateLimit() and the
+     * global limit.  Replaces sampleAfterLimitRandomly().  Default is to suppress every log over the limit.
+     */
+    public RateLimitedLogBuilder sampleAfterLimit(int everyNth) {
+        if (everyNth <= 1) {
+            throw new IllegalArgumentException("everyNth must be > 1");
+        }
+        this.sampleEveryNth = everyNth;
+        this.sampleProbability = 0.0;
+        return this;
+    }
+
+    /**
+     * Optional: as sampleAfterLimit(), but let through each log over the limit with @param probability , chosen
+     * using a ThreadLocalRandom, rather than every Nth.  Unlike sampleAfterLimit(), this doesn't count the logs
+     * over the limit in a shared counter, so it adds no contention to heavily-suppressed patterns.  Replaces
+     * sampleAfterLimit().  Default is to suppress every log over the limit.
+     */
+    public RateLimitedLogBuilder sampleAfterLimitRandomly(double probability) {
+        if (!(probability > 0.0 && probability < 1.0)) {
+            throw new IllegalArgumentException("probability must be > 0 and < 1");
+        }
+        this.sampleProbability = probability;
+        this.sampleEveryNth = 0;
+        return this;
+    }
+
+    /**
+     * Optional: log the stack traces of only the first @param fullStackTraces logs with a Throwable of each
+     * pattern and level in every period; later ones are logged with just the exception's class, message and a
+     * short fingerprint, which identifies repeats of the same exception.  This cuts the cost of an exception storm
+     * without suppressing the logs entirely.  Combined with fingerprintExceptions(), the count is kept for each
+     * exception fingerprint separately.  Default is to log every stack trace.
+     */
+    public RateLimitedLogBuilder elideStackTraces(int fullStackTraces) {
+        if (fullStackTraces <= 0) {
+            throw new IllegalArgumentException("fullStackTraces must be > 0");
+        }
+        this.fullStackTraces = fullStackTraces;
+        return this;
+    }
+
+    /**
+     * Optional: for callers which log messages of unbounded cardinality, count each message's logs in a count-min
+     * sketch of @param depth rows of @param width counters, rather than keeping a rate limiter per pattern.
+     * Memory use is then constant, at 4 * width * depth bytes, however many distinct messages are logged; but
+     * messages whose counters collide with busier messages' may be suppressed before reaching maxRate.  With
+     * n logs let through in a period, a message is suppressed at most about 2.7 * n / width logs early, except
+     * with probability about 0.37 ^ depth.  Suppressed logs are summarised together, rather than per pattern.
+     * Handles obtained with RateLimitedLog.handle() are still counted exactly.  Only supported with the default
+     * fixed-window algorithm.  Default is to count each pattern exactly.
+     *
+     * @param width the number of counters per row, which must be a power of 2.
+     */
+    public RateLimitedLogBuilder withCountMinSketch(int width, int depth) {
+        if (width <= 0 || Integer.bitCount(width) != 1) {
+            throw new IllegalArgumentException("width must be a power of 2");
+        }
+        if (depth <= 0) {
+            throw new IllegalArgumentException("depth must be > 0");
+        }
+        this.sketchWidth = width;
+        this.sketchDepth = depth;
+        return this;
+    }
+
+    /**
+     * Optional: rather than outputting a log for each pattern which had logs suppressed, output a single summary
+     * of all of this RateLimitedLog's suppressions once every period, listing the @param topK patterns with the
+     * most suppressed logs, and totalling the rest.  This bounds the number of summary logs, however many
+     * patterns are suppressed; but a pattern's suppressions may be reported up to a period later than they would
+     * otherwise be.  Default is one summary log per suppressed pattern.
+     */
+    public RateLimitedLogBuilder summariseSuppressions(int topK) {
+        if (topK <= 0) {
+            throw new IllegalArgumentException("topK must be > 0");
+        }
+        this.summaryTopK = topK;
+        return this;
+    }
+
+    /**
+     * Optional: emit the logs which are let through asynchronously, using @param emitter , so that a slow appender
+     * does not hold up the logging threads.  Logs which the emitter has to discard, because it is full, are
+     * counted as suppressed.  Not supported with adaptToLatency(), since the wrapped Logger is no longer called
+     * by the logging threads.  Default is to log synchronously, on the calling thread.
+     *
+     * The logs carry a copy of the logging thread's MDC, but are output from the emitter's thread, so they don't
+     * have the logging thread's name.  Any still waiting in the emitter are output when the RateLimitedLog is
+     * flushed or closed.
+     */
+    public RateLimitedLogBuilder withAsyncEmitter(AsyncEmitter emitter) {
+        this.emitter = Objects.requireNonNull(emitter);
+        return this;
+    }
+
     /**
      * @return a fully-built RateLimitedLog matching the requested configuration.
      */
@@ -85,9 +363,90 @@ public class RateLimitedLogBuilder {
         if (periodLength.toMillis() <= 0) {
             throw new IllegalArgumentException("period must be non-zero");
         }
+        if (burstSize <= 0) {
+            throw new IllegalArgumentException("burstSize must be > 0");
+        }
+        AdaptiveRate adaptiveRate = null;
+        if (targetLatency != null) {
+            if (targetLatency.isNegative() || targetLatency.isZero()) {
+                throw new IllegalArgumentException("targetLatency must be non-zero");
+            }
+            if (algorithm != RateLimitedLogWithPattern.RateAndPeriod.Algorithm.FIXED_WINDOW) {
+                throw new IllegalArgumentException(
+                        "adaptToLatency() is only supported with the fixed-window algorithm");
+            }
+            if (emitter != null) {
+                throw new IllegalArgumentException("adaptToLatency() is not supported with withAsyncEmitter()");
+            }
+            adaptiveRate = new AdaptiveRate(targetLatency.toNanos());
+        }
+        if (sketchWidth > 0) {
+            if (algorithm != RateLimitedLogWithPattern.RateAndPeriod.Algorithm.FIXED_WINDOW) {
+                throw new IllegalArgumentException(
+                        "withCountMinSketch() is only supported with the fixed-window algorithm");
+            }
+            if (normalisePatterns) {
+                throw new IllegalArgumentException("normalisePatterns() is not supported with withCountMinSketch()");
+            }
+            if (fingerprintFrames > 0) {
+                throw new IllegalArgumentException(
+                        "fingerprintExceptions() is not supported with withCountMinSketch()");
+            }
+            if (maxKeys > 0) {
+                throw new IllegalArgumentException("limitPerKey() is not supported with withCountMinSketch()");
+            }
+            if (mdcKeys.length > 0) {
+                throw new IllegalArgumentException("limitPerMdcKeys() is not supported with withCountMinSketch()");
+            }
+        }
+        int keysPerPattern = maxKeys;
+        if (mdcKeys.length > 0) {
+            if (maxKeys > 0) {
+                throw new IllegalArgumentException("limitPerMdcKeys() is not supported with limitPerKey()");
+            }
+            if (fingerprintFrames > 0) {
+                throw new IllegalArgumentException("limitPerMdcKeys() is not supported with fingerprintExceptions()");
+            }
+            keysPerPattern = RateLimitedLog.MAX_PATTERNS_PER_LOG;
+        }
+        if (levelCheckPeriod != null && levelCheckPeriod.toMillis() <= 0) {
+            throw new IllegalArgumentException("levelCheckPeriod must be non-zero");
+        }
         stopwatch.start();
+        LogBudget budget = null;
+        if (maxAggregateRate > 0) {
+            budget = new LogBudget(maxAggregateRate, periodLength, stopwatch, logger, "across all patterns");
+        }
+        SuppressionSummary summary = null;
+        if (summaryTopK > 0) {
+            summary = new SuppressionSummary(summaryTopK, stopwatch, logger);
+        }
+        CountMinSketch sketch = null;
+        if (sketchWidth > 0) {
+            sketch = new CountMinSketch(sketchWidth, sketchDepth);
+        }
+        Registry.Scope scope = RateLimitedLog.REGISTRY.newScope(summary, emitter, periodLength);
+        if (budget != null) {
+            scope.registerBudget(budget, periodLength);
+        }
+        if (sketch != null) {
+            scope.registerSketch(sketch, periodLength);
+        }
+        LevelFilter levelFilter = LevelFilter.ALL_ENABLED;
+        if (levelCheckPeriod != null) {
+            levelFilter = new LevelFilter(logger);
+            scope.registerLevelFilter(levelFilter, levelCheckPeriod);
+        }
+        RateLimitedLogWithPattern.PatternOptions options = RateLimitedLogWithPattern.PatternOptions.NONE
+                .withFingerprintFrames(fingerprintFrames)
+                .withFullStackTraces(fullStackTraces)
+                .withKeys(keysPerPattern, keyArgument, mdcKeys)
+                .withSampling(sampleEveryNth, sampleProbability);
         return new RateLimitedLog(logger,
-                new RateLimitedLogWithPattern.RateAndPeriod(maxRate, periodLength), stopwatch,
-                stats, RateLimitedLog.REGISTRY);
+                new RateLimitedLogWithPattern.RateAndPeriod(maxRate, periodLength, stripedCounters, algorithm,
+                        burstSize, options),
+                stopwatch,
+                (stats == null) ? null : new LevelMetrics(stats), levelFilter, budget,
+                adaptiveRate, emitter, sketch, normalisePatterns, scope);
     }
 }
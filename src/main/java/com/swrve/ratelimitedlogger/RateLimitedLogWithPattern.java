@@ -6,8 +6,12 @@ import org.slf4j.Marker;
 import edu.umd.cs.findbugs.annotations.Nullable;
 import net.jcip.annotations.ThreadSafe;
 import java.time.Duration;
+import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Supplier;
 
 /**
  * An individual log pattern.  Each object is rate-limited individually but with separation on the log level.
@@ -16,23 +20,224 @@ import java.util.concurrent.atomic.AtomicReferenceArray;
  */
 @ThreadSafe
 public class RateLimitedLogWithPattern {
+    /**
+     * Limit the number of exception fingerprints tracked separately for each pattern; exceptions with further
+     * fingerprints share the pattern's own rate limit.
+     */
+    static final int MAX_FINGERPRINTS_PER_PATTERN = 100;
 
     private final String message;
+
+    /**
+     * The message which is actually logged.  This is the same as the message, unless this object is a view of a
+     * pattern which was normalised from the logged message; see withLoggedMessage().
+     */
+    private final String loggedMessage;
     private final RateAndPeriod rateAndPeriod;
     private final Logger logger;
-    private final Registry registry;
-    private final @Nullable CounterMetric stats;
+    private final Registry.Scope scope;
+    private final @Nullable LevelMetrics stats;
     private final Stopwatch stopwatch;
+    private final @Nullable LogBudget budget;
+    private final @Nullable AdaptiveRate adaptiveRate;
+    private final @Nullable AsyncEmitter emitter;
+    private final @Nullable CountMinSketch sketch;
     private final AtomicReferenceArray<LogWithPatternAndLevel> levels;
 
-    RateLimitedLogWithPattern(String message, RateAndPeriod rateAndPeriod, Registry registry, @Nullable CounterMetric stats, Stopwatch stopwatch, Logger logger) {
+    /**
+     * If logs are rate-limited by exception fingerprint, the patterns which stand for this one with each
+     * fingerprint seen; see forThrowable().  Null if not, or if this is one of those patterns.
+     */
+    private final @Nullable ConcurrentHashMap<Long, RateLimitedLogWithPattern> fingerprinted;
+
+    /**
+     * The fingerprinted pattern most recently returned by forThrowable(), so that logging the same Throwable
+     * instance again (a rethrown or pre-allocated exception, say) need not fingerprint it again.
+     */
+    private volatile @Nullable RateLimitedLogWithPattern lastFingerprinted = null; // mutable
+
+    /**
+     * If this is a fingerprinted pattern, the Throwable it was most recently returned for.  Only ever set to a
+     * Throwable with this pattern's fingerprint, so finding it here is as good as fingerprinting it.  This keeps
+     * at most one Throwable reachable per fingerprint.
+     */
+    private volatile @Nullable Throwable lastThrowable = null; // mutable
+
+    /**
+     * If logs are rate-limited separately for each key, such as a tenant ID, the patterns which stand for this one
+     * with each key; see forKey().  These are created when the first key is logged, since most patterns may never
+     * be logged with one.  Null if not, or if this is one of those patterns.
+     */
+    private final @Nullable AtomicReference<KeyedPatterns> keyed;
+
+    /**
+     * Set whenever this pattern is looked up in its RateLimitedLog's PatternCache, and cleared by the cache's
+     * clock hand; see PatternCache.
+     */
+    private volatile boolean recentlyUsed = false; // mutable
+
+    /**
+     * Set once this pattern has been evicted from its RateLimitedLog's PatternCache.
+     */
+    private volatile boolean evicted = false; // mutable
+
+    /**
+     * Once this pattern has been unregistered, finds the pattern which has taken its place, so that a caller still
+     * holding this one is rate-limited along with it; see unregister().  Shared with views of this pattern.
+     */
+    private final AtomicReference<Supplier<RateLimitedLogWithPattern>> replacement; // mutable
+
+    RateLimitedLogWithPattern(String message, RateAndPeriod rateAndPeriod, Registry.Scope scope,
+                              @Nullable LevelMetrics stats, @Nullable LogBudget budget,
+                              @Nullable AdaptiveRate adaptiveRate, @Nullable AsyncEmitter emitter,
+                              @Nullable CountMinSketch sketch, Stopwatch stopwatch, Logger logger) {
         this.message = message;
+        this.loggedMessage = message;
         this.rateAndPeriod = rateAndPeriod;
-        this.registry = registry;
+        this.scope = scope;
         this.logger = logger;
         this.stats = stats;
         this.stopwatch = stopwatch;
+        this.budget = budget;
+        this.adaptiveRate = adaptiveRate;
+        this.emitter = emitter;
+        this.sketch = sketch;
         this.levels = new AtomicReferenceArray<>(Level.values().length);
+        this.fingerprinted = (rateAndPeriod.options.fingerprintFrames > 0) ? new ConcurrentHashMap<>() : null;
+        this.keyed = (rateAndPeriod.options.maxKeys > 0) ? new AtomicReference<>() : null;
+        this.replacement = new AtomicReference<>();
+    }
+
+    private RateLimitedLogWithPattern(RateLimitedLogWithPattern pattern, String loggedMessage) {
+        this(pattern, pattern.message, loggedMessage, pattern.levels, pattern.fingerprinted, pattern.keyed,
+                pattern.replacement);
+    }
+
+    private RateLimitedLogWithPattern(RateLimitedLogWithPattern pattern, String message, String loggedMessage,
+                                      AtomicReferenceArray<LogWithPatternAndLevel> levels,
+                                      @Nullable ConcurrentHashMap<Long, RateLimitedLogWithPattern> fingerprinted,
+                                      @Nullable AtomicReference<KeyedPatterns> keyed,
+                                      AtomicReference<Supplier<RateLimitedLogWithPattern>> replacement) {
+        this.message = message;
+        this.loggedMessage = loggedMessage;
+        this.rateAndPeriod = pattern.rateAndPeriod;
+        this.scope = pattern.scope;
+        this.logger = pattern.logger;
+        this.stats = pattern.stats;
+        this.stopwatch = pattern.stopwatch;
+        this.budget = pattern.budget;
+        this.adaptiveRate = pattern.adaptiveRate;
+        this.emitter = pattern.emitter;
+        this.sketch = pattern.sketch;
+        this.levels = levels;
+        this.fingerprinted = fingerprinted;
+        this.keyed = keyed;
+        this.replacement = replacement;
+    }
+
+    /**
+     * @return a pattern which logs the same message as this one, but has its own rate limits, and is described
+     * in summaries of suppressed logs by @param description .
+     */
+    private RateLimitedLogWithPattern newSubPattern(String description) {
+        return new RateLimitedLogWithPattern(this, description, message,
+                new AtomicReferenceArray<>(Level.values().length), null, null, new AtomicReference<>());
+    }
+
+    /**
+     * @return a view of this pattern, sharing its rate limits, which logs @param loggedMessage instead of the
+     * pattern.
+     */
+    RateLimitedLogWithPattern withLoggedMessage(String loggedMessage) {
+        return loggedMessage.equals(this.loggedMessage) ? this : new RateLimitedLogWithPattern(this, loggedMessage);
+    }
+
+    /**
+     * @return the pattern which stands for this one when logging @param t , if logs are rate-limited by
+     * exception fingerprint; otherwise, this pattern.  It logs the same message, but has its own rate limits.
+     */
+    RateLimitedLogWithPattern forThrowable(Throwable t) {
+        if (fingerprinted == null) {
+            return this;
+        }
+        RateLimitedLogWithPattern last = lastFingerprinted;
+        if (last != null && last.lastThrowable == t) {
+            return last.withLoggedMessage(loggedMessage);
+        }
+        Long fingerprint = ExceptionFingerprint.of(t, rateAndPeriod.options.fingerprintFrames);
+        RateLimitedLogWithPattern got = fingerprinted.get(fingerprint);
+        if (got == null) {
+            RateLimitedLogWithPattern replaced = replaced();
+            if (replaced != null) {
+                return replaced.forThrowable(t).withLoggedMessage(loggedMessage);
+            }
+            // the pattern describes the exception, so that summaries of suppressed logs say which it was
+            got = forFingerprint(fingerprint, message + " [" + ExceptionFingerprint.describe(t) + "]");
+            if (got == this) {
+                return this;
+            }
+        }
+        got.lastThrowable = t;
+        lastFingerprinted = got;
+        return got.withLoggedMessage(loggedMessage);
+    }
+
+    /**
+     * @return the pattern which stands for this one for exceptions with @param fingerprint , creating it with
+     * @param description if necessary; or this pattern, if it has too many fingerprints already.
+     */
+    private RateLimitedLogWithPattern forFingerprint(Long fingerprint, String description) {
+        ConcurrentHashMap<Long, RateLimitedLogWithPattern> fingerprinted = Objects.requireNonNull(this.fingerprinted);
+        RateLimitedLogWithPattern got = fingerprinted.get(fingerprint);
+        if (got != null) {
+            return got;
+        }
+        if (fingerprinted.size() >= MAX_FINGERPRINTS_PER_PATTERN) {
+            return this;
+        }
+        RateLimitedLogWithPattern newValue = newSubPattern(description);
+        got = fingerprinted.putIfAbsent(fingerprint, newValue);
+        return (got == null) ? newValue : got;
+    }
+
+    /**
+     * @return the pattern which stands for this one when logging with @param key , such as a tenant or user ID,
+     * if the RateLimitedLog was built with limitPerKey() or limitPerMdcKeys(); otherwise, this pattern.  It logs
+     * the same message, but is rate-limited separately for each key, so that logs for one key can't crowd out those
+     * for others.  Keys are compared using equals(), so they should be immutable values, such as Strings or Longs.
+     * A null key shares this pattern's rate limit.
+     */
+    public RateLimitedLogWithPattern forKey(@Nullable Object key) {
+        if (keyed == null || key == null) {
+            return this;
+        }
+        KeyedPatterns patterns = keyed.get();
+        if (patterns == null) {
+            RateLimitedLogWithPattern replaced = replaced();
+            if (replaced != null) {
+                return replaced.forKey(key).withLoggedMessage(loggedMessage);
+            }
+            patterns = keyedPatterns();
+        }
+        return patterns.get(key).withLoggedMessage(loggedMessage);
+    }
+
+    /**
+     * @return the patterns which stand for this one with each key, creating them if necessary.
+     */
+    private KeyedPatterns keyedPatterns() {
+        AtomicReference<KeyedPatterns> keyed = Objects.requireNonNull(this.keyed);
+        KeyedPatterns patterns = keyed.get();
+        if (patterns == null) {
+            // a RateLimitedLog tracks as many keys in total as it does patterns, unless one pattern may have more
+            patterns = new KeyedPatterns(rateAndPeriod.options.maxKeys,
+                    Math.max(rateAndPeriod.options.maxKeys, RateLimitedLog.MAX_PATTERNS_PER_LOG), scope,
+                    k -> newSubPattern(message + " [" + k + "]"), () -> newSubPattern(message + " [other keys]"));
+            if (!keyed.compareAndSet(null, patterns)) {
+                patterns = Objects.requireNonNull(keyed.get());
+            }
+        }
+        return patterns;
     }
 
     /**
@@ -45,86 +250,209 @@ public class RateLimitedLogWithPattern {
      *    rateLimitedLog.info("Just saw an event of type {}: {}", event.getType(), event);
      * </pre>
      *
+     * The zero-, one- and two-argument forms avoid allocating a varargs array, so a suppressed
+     * call allocates nothing.
+     *
      * @param args the varargs list of arguments matching the message template
      */
+    public void trace() {
+        get(Level.TRACE).logAs(loggedMessage);
+    }
+
+    public void trace(Object arg) {
+        get(Level.TRACE).logAs(loggedMessage, arg);
+    }
+
+    public void trace(Object arg1, Object arg2) {
+        get(Level.TRACE).logAs(loggedMessage, arg1, arg2);
+    }
+
     public void trace(Object... args) {
-        get(Level.TRACE).log(args);
+        get(Level.TRACE).logAs(loggedMessage, args);
     }
 
     public void trace(Throwable t) {
-        get(Level.TRACE).log(t);
+        get(Level.TRACE).logAs(loggedMessage, t);
+    }
+
+    public void trace(Marker marker) {
+        get(Level.TRACE).logAs(loggedMessage, marker);
+    }
+
+    public void trace(Marker marker, Object arg) {
+        get(Level.TRACE).logAs(loggedMessage, marker, arg);
+    }
+
+    public void trace(Marker marker, Object arg1, Object arg2) {
+        get(Level.TRACE).logAs(loggedMessage, marker, arg1, arg2);
     }
 
     public void trace(Marker marker, Object... args) {
-        get(Level.TRACE).log(marker, args);
+        get(Level.TRACE).logAs(loggedMessage, marker, args);
     }
 
     public void trace(Marker marker, Throwable t) {
-        get(Level.TRACE).log(marker, t);
+        get(Level.TRACE).logAs(loggedMessage, marker, t);
+    }
+
+    public void debug() {
+        get(Level.DEBUG).logAs(loggedMessage);
+    }
+
+    public void debug(Object arg) {
+        get(Level.DEBUG).logAs(loggedMessage, arg);
+    }
+
+    public void debug(Object arg1, Object arg2) {
+        get(Level.DEBUG).logAs(loggedMessage, arg1, arg2);
     }
 
     public void debug(Object... args) {
-        get(Level.DEBUG).log(args);
+        get(Level.DEBUG).logAs(loggedMessage, args);
     }
 
     public void debug(Throwable t) {
-        get(Level.DEBUG).log(t);
+        get(Level.DEBUG).logAs(loggedMessage, t);
+    }
+
+    public void debug(Marker marker) {
+        get(Level.DEBUG).logAs(loggedMessage, marker);
+    }
+
+    public void debug(Marker marker, Object arg) {
+        get(Level.DEBUG).logAs(loggedMessage, marker, arg);
+    }
+
+    public void debug(Marker marker, Object arg1, Object arg2) {
+        get(Level.DEBUG).logAs(loggedMessage, marker, arg1, arg2);
     }
 
     public void debug(Marker marker, Object... args) {
-        get(Level.DEBUG).log(marker, args);
+        get(Level.DEBUG).logAs(loggedMessage, marker, args);
     }
 
     public void debug(Marker marker, Throwable t) {
-        get(Level.DEBUG).log(marker, t);
+        get(Level.DEBUG).logAs(loggedMessage, marker, t);
+    }
+
+    public void info() {
+        get(Level.INFO).logAs(loggedMessage);
+    }
+
+    public void info(Object arg) {
+        get(Level.INFO).logAs(loggedMessage, arg);
+    }
+
+    public void info(Object arg1, Object arg2) {
+        get(Level.INFO).logAs(loggedMessage, arg1, arg2);
     }
 
     public void info(Object... args) {
-        get(Level.INFO).log(args);
+        get(Level.INFO).logAs(loggedMessage, args);
     }
 
     public void info(Throwable t) {
-        get(Level.INFO).log(t);
+        get(Level.INFO).logAs(loggedMessage, t);
+    }
+
+    public void info(Marker marker) {
+        get(Level.INFO).logAs(loggedMessage, marker);
+    }
+
+    public void info(Marker marker, Object arg) {
+        get(Level.INFO).logAs(loggedMessage, marker, arg);
+    }
+
+    public void info(Marker marker, Object arg1, Object arg2) {
+        get(Level.INFO).logAs(loggedMessage, marker, arg1, arg2);
     }
 
     public void info(Marker marker, Object... args) {
-        get(Level.INFO).log(marker, args);
+        get(Level.INFO).logAs(loggedMessage, marker, args);
     }
 
     public void info(Marker marker, Throwable t) {
-        get(Level.INFO).log(marker, t);
+        get(Level.INFO).logAs(loggedMessage, marker, t);
+    }
+
+    public void warn() {
+        get(Level.WARN).logAs(loggedMessage);
+    }
+
+    public void warn(Object arg) {
+        get(Level.WARN).logAs(loggedMessage, arg);
+    }
+
+    public void warn(Object arg1, Object arg2) {
+        get(Level.WARN).logAs(loggedMessage, arg1, arg2);
     }
 
     public void warn(Object... args) {
-        get(Level.WARN).log(args);
+        get(Level.WARN).logAs(loggedMessage, args);
     }
 
     public void warn(Throwable t) {
-        get(Level.WARN).log(t);
+        get(Level.WARN).logAs(loggedMessage, t);
+    }
+
+    public void warn(Marker marker) {
+        get(Level.WARN).logAs(loggedMessage, marker);
+    }
+
+    public void warn(Marker marker, Object arg) {
+        get(Level.WARN).logAs(loggedMessage, marker, arg);
+    }
+
+    public void warn(Marker marker, Object arg1, Object arg2) {
+        get(Level.WARN).logAs(loggedMessage, marker, arg1, arg2);
     }
 
     public void warn(Marker marker, Object... args) {
-        get(Level.WARN).log(marker, args);
+        get(Level.WARN).logAs(loggedMessage, marker, args);
     }
 
     public void warn(Marker marker, Throwable t) {
-        get(Level.WARN).log(marker, t);
+        get(Level.WARN).logAs(loggedMessage, marker, t);
+    }
+
+    public void error() {
+        get(Level.ERROR).logAs(loggedMessage);
+    }
+
+    public void error(Object arg) {
+        get(Level.ERROR).logAs(loggedMessage, arg);
+    }
+
+    public void error(Object arg1, Object arg2) {
+        get(Level.ERROR).logAs(loggedMessage, arg1, arg2);
     }
 
     public void error(Object... args) {
-        get(Level.ERROR).log(args);
+        get(Level.ERROR).logAs(loggedMessage, args);
     }
 
     public void error(Throwable t) {
-        get(Level.ERROR).log(t);
+        get(Level.ERROR).logAs(loggedMessage, t);
+    }
+
+    public void error(Marker marker) {
+        get(Level.ERROR).logAs(loggedMessage, marker);
+    }
+
+    public void error(Marker marker, Object arg) {
+        get(Level.ERROR).logAs(loggedMessage, marker, arg);
+    }
+
+    public void error(Marker marker, Object arg1, Object arg2) {
+        get(Level.ERROR).logAs(loggedMessage, marker, arg1, arg2);
     }
 
     public void error(Marker marker, Object... args) {
-        get(Level.ERROR).log(marker, args);
+        get(Level.ERROR).logAs(loggedMessage, marker, args);
     }
 
     public void error(Marker marker, Throwable t) {
-        get(Level.ERROR).log(marker, t);
+        get(Level.ERROR).logAs(loggedMessage, marker, t);
     }
 
     /**
@@ -166,28 +494,245 @@ public class RateLimitedLogWithPattern {
         if (got != null) {
             return got;
         }
+        RateLimitedLogWithPattern replaced = replaced();
+        if (replaced != null) {
+            return replaced.get(level);     // rather than registering a new log for a pattern which has been evicted
+        }
 
         // slow path: create a new LogWithPatternAndLevel
-        LogWithPatternAndLevel newValue = new LogWithPatternAndLevel(message,
-                level, rateAndPeriod, stats, stopwatch, logger);
+        LogWithPatternAndLevel newValue = new LogWithPatternAndLevel(message, level, rateAndPeriod,
+                (stats == null) ? null : stats.forLevel(level), budget, scope, adaptiveRate, emitter, sketch,
+                stopwatch, logger);
 
         boolean wasSet = levels.compareAndSet(l, null, newValue);
         if (!wasSet) {
             return Objects.requireNonNull(levels.get(l));
         } else {
-            // ensure we'll reset the counter once every period
-            registry.register(newValue, rateAndPeriod.periodLength);
+            newValue.register();
             return newValue;
         }
     }
 
+    String getMessage() {
+        return message;
+    }
+
+    void markRecentlyUsed() {
+        if (!recentlyUsed) {
+            recentlyUsed = true;  // only write if necessary, to avoid dirtying the cache line on every lookup
+        }
+    }
+
+    /**
+     * @return true if this pattern was recently used, clearing the bit.
+     */
+    boolean clearRecentlyUsed() {
+        if (recentlyUsed) {
+            recentlyUsed = false;
+            return true;
+        }
+        return false;
+    }
+
+    void markEvicted() {
+        evicted = true;
+    }
+
+    boolean isEvicted() {
+        return evicted;
+    }
+
+    /**
+     * This pattern has been evicted from its RateLimitedLog's cache: report any suppressions, and stop resetting it.
+     * If a caller still holds it, it logs through the pattern which @param replacement finds in its place instead,
+     * so that the two share one rate limit, and the evicted pattern's logs are never registered again.
+     */
+    void unregister(Supplier<RateLimitedLogWithPattern> replacement) {
+        this.replacement.set(replacement);      // first, so that concurrent logs aren't lost in the evicted ones
+        Level[] values = Level.values();
+        for (int l = 0; l < levels.length(); l++) {
+            LogWithPatternAndLevel log = levels.get(l);
+            if (log != null) {
+                Level level = values[l];
+                log.unregister(() -> replacement.get().get(level));
+            }
+        }
+        if (fingerprinted != null) {
+            for (Map.Entry<Long, RateLimitedLogWithPattern> entry : fingerprinted.entrySet()) {
+                Long fingerprint = entry.getKey();
+                String description = entry.getValue().message;
+                entry.getValue().unregister(() -> replacement.get().forFingerprint(fingerprint, description));
+            }
+        }
+        KeyedPatterns patterns = (keyed == null) ? null : keyed.get();
+        if (patterns != null) {
+            patterns.unregister(() -> replacement.get().keyedPatterns());
+        }
+    }
+
+    /**
+     * @return the pattern which has taken this one's place, if it has been unregistered; otherwise, null.
+     */
+    private @Nullable RateLimitedLogWithPattern replaced() {
+        Supplier<RateLimitedLogWithPattern> replacement = this.replacement.get();
+        return (replacement == null) ? null : replacement.get();
+    }
+
     public static final class RateAndPeriod {
         final int maxRate;
         final Duration periodLength;
+        final boolean stripedCounters;
+        final Algorithm algorithm;
+        final int burstSize;
+
+        /**
+         * How logs with exceptions, keys or over the rate limit are treated.
+         */
+        final PatternOptions options;
 
         public RateAndPeriod(int maxRate, Duration periodLength) {
+            this(maxRate, periodLength, false, Algorithm.FIXED_WINDOW, maxRate, PatternOptions.NONE);
+        }
+
+        RateAndPeriod(int maxRate, Duration periodLength, boolean stripedCounters, Algorithm algorithm, int burstSize,
+                      PatternOptions options) {
             this.maxRate = maxRate;
             this.periodLength = periodLength;
+            this.stripedCounters = stripedCounters;
+            this.algorithm = algorithm;
+            this.burstSize = burstSize;
+            this.options = options;
+        }
+
+        /**
+         * @return true if the rate-limiting algorithm relies on the Registry to reset it every period.
+         */
+        boolean needsPeriodicReset() {
+            return algorithm == Algorithm.FIXED_WINDOW;
+        }
+
+        /**
+         * @return a new RateLimiter for one LogWithPatternAndLevel, timed using @param stopwatch ; or null if
+         * the fixed-window algorithm, which is implemented by LogWithPatternAndLevel itself, is in use.
+         */
+        @Nullable RateLimiter newRateLimiter(Stopwatch stopwatch) {
+            switch (algorithm) {
+                case TOKEN_BUCKET:
+                    return new TokenBucket(this, stopwatch);
+                case SLIDING_WINDOW:
+                    return new SlidingWindow(this, stopwatch);
+                case LAZY_FIXED_WINDOW:
+                    return new EpochWindow(this, stopwatch);
+                default:
+                    return null;
+            }
+        }
+
+        /**
+         * The supported rate-limiting algorithms.
+         */
+        enum Algorithm {
+            /**
+             * Allow maxRate logs, then suppress until the Registry resets the counters at the end of the period.
+             */
+            FIXED_WINDOW,
+
+            /**
+             * Allow bursts of up to burstSize logs, refilling at maxRate per period; see TokenBucket.
+             */
+            TOKEN_BUCKET,
+
+            /**
+             * Allow at most maxRate logs in any rolling period; see SlidingWindow.
+             */
+            SLIDING_WINDOW,
+
+            /**
+             * Allow maxRate logs in each period, as with FIXED_WINDOW, but reset lazily; see EpochWindow.
+             */
+            LAZY_FIXED_WINDOW
+        }
+    }
+
+    /**
+     * The options which decide how a pattern treats logs with exceptions or keys, and logs over its rate limit.
+     * Immutable: each with...() method returns a copy with the given options set.
+     */
+    static final class PatternOptions {
+        static final PatternOptions NONE = new PatternOptions(0, 0, 0, 0, new String[0], 0, 0.0);
+
+        /**
+         * If non-zero, logs with exceptions are rate-limited separately for each exception fingerprint, using
+         * this many stack frames of the root cause; see ExceptionFingerprint.
+         */
+        final int fingerprintFrames;
+
+        /**
+         * If non-zero, logs with a Throwable have their stack traces elided after this many in each period.
+         */
+        final int fullStackTraces;
+
+        /**
+         * If non-zero, logs are rate-limited separately for each key, tracking up to this many keys per pattern;
+         * see KeyedPatterns.
+         */
+        final int maxKeys;
+
+        /**
+         * If maxKeys is non-zero, the index of the logging argument which RateLimitedLog uses as the key.
+         */
+        final int keyArgument;
+
+        /**
+         * If maxKeys is non-zero, and this is not empty, the MDC keys whose values RateLimitedLog uses as the key,
+         * instead of a logging argument.
+         */
+        final String[] mdcKeys;
+
+        /**
+         * If non-zero, every sampleEveryNth log over a pattern's limit is let through anyway; if
+         * sampleProbability is non-zero, each is let through with that probability.
+         */
+        final int sampleEveryNth;
+        final double sampleProbability;
+
+        /**
+         * Appended to the logs let through by sampling, so that readers know they were sampled.
+         */
+        final String samplingTag;
+
+        private PatternOptions(int fingerprintFrames, int fullStackTraces, int maxKeys, int keyArgument,
+                               String[] mdcKeys, int sampleEveryNth, double sampleProbability) {
+            this.fingerprintFrames = fingerprintFrames;
+            this.fullStackTraces = fullStackTraces;
+            this.maxKeys = maxKeys;
+            this.keyArgument = keyArgument;
+            this.mdcKeys = mdcKeys;
+            this.sampleEveryNth = sampleEveryNth;
+            this.sampleProbability = sampleProbability;
+            this.samplingTag = (sampleEveryNth > 0) ? " [sampled 1 in " + sampleEveryNth + " over the rate limit]"
+                    : (sampleProbability > 0.0)
+                    ? " [sampled with probability " + sampleProbability + " over the rate limit]" : "";
+        }
+
+        PatternOptions withFingerprintFrames(int fingerprintFrames) {
+            return new PatternOptions(fingerprintFrames, fullStackTraces, maxKeys, keyArgument, mdcKeys,
+                    sampleEveryNth, sampleProbability);
+        }
+
+        PatternOptions withFullStackTraces(int fullStackTraces) {
+            return new PatternOptions(fingerprintFrames, fullStackTraces, maxKeys, keyArgument, mdcKeys,
+                    sampleEveryNth, sampleProbability);
+        }
+
+        PatternOptions withKeys(int maxKeys, int keyArgument, String[] mdcKeys) {
+            return new PatternOptions(fingerprintFrames, fullStackTraces, maxKeys, keyArgument, mdcKeys,
+                    sampleEveryNth, sampleProbability);
+        }
+
+        PatternOptions withSampling(int sampleEveryNth, double sampleProbability) {
+            return new PatternOptions(fingerprintFrames, fullStackTraces, maxKeys, keyArgument, mdcKeys,
+                    sampleEveryNth, sampleProbability);
         }
     }
 }
@@ -0,0 +1,13 @@
+package com.swrve.ratelimitedlogger;
+
+/**
+ * A rate-limiting algorithm which decides, log by log, whether to let a log through, without relying on the
+ * Registry to reset it at the end of every period.  Implementations must be thread-safe.
+ */
+interface RateLimiter {
+
+    /**
+     * @return true if the log should be let through; false if it should be suppressed.
+     */
+    boolean tryAcquire();
+}
@@ -1,97 +1,318 @@
 package com.swrve.ratelimitedlogger;
 
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
-
+import edu.umd.cs.findbugs.annotations.Nullable;
+import net.jcip.annotations.GuardedBy;
 import net.jcip.annotations.ThreadSafe;
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
 import java.util.Locale;
 import java.util.Map;
-import java.util.concurrent.*;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 
 /**
- * Internal registry of LogWithPatternAndLevel objects, allowing periodic resets of their counters.
+ * Internal registry of LogWithPatternAndLevel objects, allowing periodic resets of their counters.  Each
+ * RateLimitedLog registers its objects in its own Scope.
  */
 @ThreadSafe
 class Registry {
-    private static final Logger logger = LoggerFactory.getLogger(Registry.class);
+    private static final AtomicLong REGISTRY_COUNT = new AtomicLong(0);
 
-    private final ConcurrentHashMap<Duration, ConcurrentHashMap<LogWithPatternAndLevel, Boolean>> registry
-            = new ConcurrentHashMap<>();
+    /**
+     * The Scopes of every RateLimitedLog using this registry, so that they can all be flushed.  A Scope is removed
+     * when its RateLimitedLog is closed.
+     */
+    private final ConcurrentHashMap<Scope, Boolean> scopes = new ConcurrentHashMap<>();
 
-    private final ThreadFactory threadFactory = new ThreadFactory() {
-        final AtomicLong count = new AtomicLong(0);
+    /**
+     * The global LogBudget, which is reset periodically by its own scheduled task, but should also be flushed.  A
+     * RateLimitedLog's own budget is registered in its Scope instead.
+     */
+    private final ConcurrentHashMap<LogBudget, TimingWheel.Timeout> budgets = new ConcurrentHashMap<>();
 
-        @Override
-        public Thread newThread(Runnable r) {
-            Thread thread = new Thread(r);
-            thread.setName(String.format(Locale.ROOT, "RateLimitedLogRegistry-%d", count.getAndIncrement()));
-            thread.setDaemon(true);
-            return thread;
-        }
-    };
+    /**
+     * The limit on total logs across every RateLimitedLog using this registry, if any.
+     */
+    private volatile @Nullable LogBudget globalBudget = null; // mutable
 
-    private final ScheduledExecutorService resetScheduler = Executors.newScheduledThreadPool(1, threadFactory);
+    private final TimingWheel resetScheduler;
 
     Registry() {
+        this(new TimingWheel(String.format(Locale.ROOT, "RateLimitedLogRegistry-%d",
+                REGISTRY_COUNT.getAndIncrement())));
+    }
+
+    Registry(TimingWheel resetScheduler) {
+        this.resetScheduler = resetScheduler;
+
         // this will ensure that we will always flush any suppressed logs prior to exiting a process
         Runtime.getRuntime().addShutdownHook(new Thread(this::flush));
     }
 
     /**
-     * Register a new @param log, with a reset periodicity of @param period.  This happens relatively infrequently,
-     * so synchronization is ok (and safer)
+     * @return a new Scope, in which one RateLimitedLog can register its LogWithPatternAndLevel objects.  If
+     * @param summary is non-null, their suppressions are reported to it, rather than logged individually, and it
+     * is output every @param period .  If they emit logs through @param emitter , it's drained when the scope is
+     * flushed.
+     */
+    Scope newScope(@Nullable SuppressionSummary summary, @Nullable AsyncEmitter emitter, Duration period) {
+        Scope scope = new Scope(summary, emitter);
+        if (summary != null) {
+            scope.schedule(summary::periodicReset, period);
+        }
+        scopes.put(scope, Boolean.TRUE);
+        return scope;
+    }
+
+    private void registerBudget(LogBudget budget, Duration period) {
+        budgets.put(budget, resetScheduler.schedule(budget::periodicReset, period));
+    }
+
+    /**
+     * Set the @param budget shared by every RateLimitedLog using this registry, with a reset periodicity of
+     * @param period .
      *
-     * @throws IllegalStateException if we run out of space in the registry for that period.
+     * @throws IllegalStateException if a global budget has already been set.
+     */
+    synchronized void setGlobalBudget(LogBudget budget, Duration period) {
+        if (globalBudget != null) {
+            throw new IllegalStateException("global limit has already been configured");
+        }
+        registerBudget(budget, period);
+        globalBudget = budget;
+    }
+
+    @Nullable LogBudget getGlobalBudget() {
+        return globalBudget;
+    }
+
+    /**
+     * @return the number of Scopes which have not been closed.
+     */
+    int scopeCount() {
+        return scopes.size();
+    }
+
+    synchronized void flush() {
+        for (Scope scope : scopes.keySet()) {
+            scope.flush();
+        }
+        for (LogBudget budget : budgets.keySet()) {
+            budget.periodicReset();
+        }
+    }
+
+    /**
+     * The LogWithPatternAndLevel objects of one RateLimitedLog.  Keeping these separate means that flushing or
+     * evicting one log's patterns cannot affect another's, even if they use the same pattern strings.
      */
-    synchronized void register(LogWithPatternAndLevel log, Duration period) {
-
-        // if we haven't seen this period before, we'll need to add a schedule to the ScheduledExecutorService
-        // to perform a counter reset with that periodicity, otherwise we can count on the existing schedule
-        // taking care of it.
-        boolean needToScheduleReset = false;
-
-        ConcurrentHashMap<LogWithPatternAndLevel, Boolean> logLinesForPeriod = registry.get(period);
-        if (logLinesForPeriod == null) {
-            needToScheduleReset = true;
-            logLinesForPeriod = new ConcurrentHashMap<>();
-            registry.put(period, logLinesForPeriod);
-
-        } else {
-            if (logLinesForPeriod.get(log) != null) {
-                return;     // this has already been registered
+    @ThreadSafe
+    final class Scope {
+        /**
+         * LogWithPatternAndLevel objects which are reset periodically, and the handles on their scheduled resets.
+         * These are keyed by identity, since a pattern which was evicted and created again has an equal log, and
+         * the evicted one may still be in use.
+         */
+        @GuardedBy("this")
+        private final Map<LogWithPatternAndLevel, TimingWheel.Timeout> scheduled = new IdentityHashMap<>();
+
+        /**
+         * LogWithPatternAndLevel objects which don't need periodic resets, but which should report any outstanding
+         * suppressions when flushed.
+         */
+        @GuardedBy("this")
+        private final Set<LogWithPatternAndLevel> unscheduled = Collections.newSetFromMap(new IdentityHashMap<>());
+
+        /**
+         * Where suppressions are reported, if they are summarised across the scope's logs.
+         */
+        private final @Nullable SuppressionSummary summary;
+
+        /**
+         * The AsyncEmitter which the scope's logs emit through, if any.  Its thread is a daemon, so the logs
+         * waiting in it would be lost at shutdown unless they were drained when flushing.
+         */
+        private final @Nullable AsyncEmitter emitter;
+
+        /**
+         * The scope's other periodic tasks, such as outputting its SuppressionSummary, which are cancelled when
+         * it's closed.
+         */
+        @GuardedBy("this")
+        private final List<TimingWheel.Timeout> tasks = new ArrayList<>();
+
+        /**
+         * The limit on total logs across the scope's logs, if any, which is flushed with them.
+         */
+        @GuardedBy("this")
+        private @Nullable LogBudget budget = null; // mutable
+
+        /**
+         * The number of keys tracked by the KeyedPatterns of the scope's patterns, which is limited across all of
+         * them; see tryAddKey().
+         */
+        private final AtomicInteger keys = new AtomicInteger(0); // mutable
+
+        /**
+         * Set once the scope is closed, after which no more logs are registered in it.
+         */
+        @GuardedBy("this")
+        private boolean closed = false; // mutable
+
+        private Scope(@Nullable SuppressionSummary summary, @Nullable AsyncEmitter emitter) {
+            this.summary = summary;
+            this.emitter = emitter;
+        }
+
+        /**
+         * Register a new @param log, with a reset periodicity of @param period.  This happens relatively
+         * infrequently, so synchronization is ok (and safer)
+         *
+         * Each log is reset one period after it was registered, and every period thereafter, so that the resets of
+         * many logs with the same period are spread out over time, rather than all taking place at once.
+         */
+        synchronized void register(LogWithPatternAndLevel log, Duration period) {
+            if (closed || scheduled.get(log) != null) {
+                return;     // this has already been registered, or the scope is closed
+            }
+            scheduled.put(log, resetScheduler.schedule(log::periodicReset, period));
+        }
+
+        /**
+         * Register the @param budget shared by the scope's logs, with a reset periodicity of @param period .
+         */
+        synchronized void registerBudget(LogBudget budget, Duration period) {
+            schedule(budget::periodicReset, period);
+            this.budget = budget;
+        }
+
+        /**
+         * Register a @param levelFilter to be refreshed from its Logger every @param period .
+         */
+        void registerLevelFilter(LevelFilter levelFilter, Duration period) {
+            schedule(levelFilter::refresh, period);
+        }
+
+        /**
+         * Register a @param sketch , with a reset periodicity of @param period .
+         */
+        void registerSketch(CountMinSketch sketch, Duration period) {
+            schedule(sketch::periodicReset, period);
+        }
+
+        private synchronized void schedule(Runnable task, Duration period) {
+            tasks.add(resetScheduler.schedule(task, period));
+        }
+
+        /**
+         * Register a new @param log which does not need periodic resets, so that it will still be flushed.
+         */
+        synchronized void registerForFlush(LogWithPatternAndLevel log) {
+            if (!closed) {
+                unscheduled.add(log);
             }
         }
-        logLinesForPeriod.put(log, Boolean.TRUE);
-
-        if (needToScheduleReset) {
-            final ConcurrentHashMap<LogWithPatternAndLevel, Boolean> finalLogLinesForPeriod = logLinesForPeriod;
-            resetScheduler.scheduleWithFixedDelay(() -> {
-                try {
-                    resetAllCounters(finalLogLinesForPeriod);
-                } catch (Exception e) {
-                    //noinspection AccessToStaticFieldLockedOnInstance
-                    logger.warn("failed to reset counters: " + e, e);
-                    // but carry on in the next iteration
+
+        /**
+         * Stop resetting @param log , after reporting any suppressions.  Called when its pattern is evicted from
+         * the RateLimitedLog's cache; if it's used again, it logs through the log which took its place.
+         */
+        void unregister(LogWithPatternAndLevel log) {
+            TimingWheel.Timeout timeout;
+            synchronized (this) {
+                timeout = scheduled.remove(log);
+                unscheduled.remove(log);
+            }
+            if (timeout != null) {
+                timeout.cancel();
+            }
+            log.periodicReset();    // outside the lock, since this may log
+        }
+
+        /**
+         * @return the number of logs registered in this scope.
+         */
+        synchronized int size() {
+            return scheduled.size() + unscheduled.size();
+        }
+
+        /**
+         * @return true, counting one more key, if fewer than @param maxKeys keys are tracked in this scope.
+         */
+        boolean tryAddKey(int maxKeys) {
+            int count = keys.get();
+            while (count < maxKeys) {
+                if (keys.compareAndSet(count, count + 1)) {
+                    return true;
                 }
-            }, period.toMillis(), period.toMillis(), TimeUnit.MILLISECONDS);
+                count = keys.get();
+            }
+            return false;
         }
-    }
 
-    private void resetAllCounters(ConcurrentHashMap<LogWithPatternAndLevel, Boolean> logLinesForPeriod) {
-        for (LogWithPatternAndLevel log : logLinesForPeriod.keySet()) {
-            log.periodicReset();
+        /**
+         * Stop counting @param count keys, which are no longer tracked.
+         */
+        void removeKeys(int count) {
+            keys.addAndGet(-count);
         }
-    }
 
-    synchronized void flush() {
-        for (Map.Entry<Duration, ConcurrentHashMap<LogWithPatternAndLevel, Boolean>>
-                entry : registry.entrySet()) {
+        @Nullable LogBudget getGlobalBudget() {
+            return globalBudget;
+        }
 
-            ConcurrentHashMap<LogWithPatternAndLevel, Boolean> logLinesForPeriod = entry.getValue();
-            resetAllCounters(logLinesForPeriod);
-            logLinesForPeriod.clear();
+        @Nullable SuppressionSummary getSummary() {
+            return summary;
+        }
+
+        /**
+         * Emit any logs let through in this scope which are still waiting in its AsyncEmitter, report any
+         * suppressions, including any summary of them, and stop resetting its logs.
+         */
+        synchronized void flush() {
+            if (emitter != null) {
+                emitter.flush();    // first, so that they're output before the summaries of what was suppressed
+            }
+            for (Map.Entry<LogWithPatternAndLevel, TimingWheel.Timeout> entry : scheduled.entrySet()) {
+                entry.getValue().cancel();
+                entry.getKey().periodicReset();
+            }
+            scheduled.clear();
+            for (LogWithPatternAndLevel log : unscheduled) {
+                log.periodicReset();
+            }
+            unscheduled.clear();
+            if (summary != null) {
+                summary.periodicReset();    // after the logs, which may have reported to it
+            }
+            if (budget != null) {
+                budget.periodicReset();
+            }
+        }
+
+        /**
+         * Report any suppressions in this scope, stop resetting its logs, and remove it from the registry, so that
+         * it and its logs can be garbage-collected.  Logs registered afterwards are ignored.  Also stops the
+         * thread of its AsyncEmitter, if any.
+         */
+        void close() {
+            scopes.remove(this);
+            synchronized (this) {
+                closed = true;
+                for (TimingWheel.Timeout task : tasks) {
+                    task.cancel();
+                }
+                tasks.clear();
+                flush();
+            }
+            if (emitter != null) {
+                emitter.close();    // outside the lock, since this waits for the emitter's thread
+            }
         }
     }
 }
@@ -0,0 +1,104 @@
+package com.swrve.ratelimitedlogger;
+
+import net.jcip.annotations.GuardedBy;
+import net.jcip.annotations.ThreadSafe;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A sliding window, which lets through at most maxRate logs in any rolling period.
+ *
+ * Rather than recording the time of every log, which would use memory in proportion to the rate, the period is
+ * split into SUB_WINDOWS buckets, and we count the logs in the current bucket and the SUB_WINDOWS before it.  Since
+ * the oldest of those buckets may lie partly outside the rolling period, this errs on the side of suppression:
+ * at worst, we allow maxRate logs per (1 + 1/SUB_WINDOWS) periods.
+ *
+ * Thread-safe.  Once the limit has been reached, we record when the oldest counted log will expire, so that
+ * suppressed logs need only read that volatile value, rather than taking the lock.
+ */
+@ThreadSafe
+final class SlidingWindow implements RateLimiter {
+    private static final int SUB_WINDOWS = 4;
+    private static final int BUCKETS = SUB_WINDOWS + 1;
+
+    private final int maxRate;
+    private final long bucketNanos;
+    private final Stopwatch stopwatch;
+
+    @GuardedBy("this")
+    private final long[] counts = new long[BUCKETS];
+
+    @GuardedBy("this")
+    private long currentBucket = 0L;
+
+    @GuardedBy("this")
+    private long total = 0L;
+
+    /**
+     * Until this time, in nanos since the stopwatch started, the window is known to be full.
+     */
+    private volatile long fullUntilNanos = 0L; // mutable
+
+    SlidingWindow(RateLimitedLogWithPattern.RateAndPeriod rateAndPeriod, Stopwatch stopwatch) {
+        this.maxRate = rateAndPeriod.maxRate;
+        this.bucketNanos = Math.max(1L, rateAndPeriod.periodLength.toNanos() / SUB_WINDOWS);
+        this.stopwatch = stopwatch;
+    }
+
+    @Override
+    public boolean tryAcquire() {
+        long now = stopwatch.elapsedTime(TimeUnit.NANOSECONDS);
+        if (now < fullUntilNanos) {
+            return false;
+        }
+        return tryAcquireLocked(now);
+    }
+
+    private synchronized boolean tryAcquireLocked(long now) {
+        long bucket = now / bucketNanos;
+        expireBucketsBefore(bucket);
+
+        boolean acquired = false;
+        if (total < maxRate) {
+            counts[(int) (bucket % BUCKETS)]++;
+            total++;
+            acquired = true;
+        }
+        if (total >= maxRate) {
+            fullUntilNanos = (oldestNonEmptyBucket(bucket) + BUCKETS) * bucketNanos;
+        }
+        return acquired;
+    }
+
+    @GuardedBy("this")
+    private void expireBucketsBefore(long bucket) {
+        if (bucket <= currentBucket) {
+            return;
+        }
+        if (bucket - currentBucket >= BUCKETS) {
+            Arrays.fill(counts, 0L);
+            total = 0L;
+        } else {
+            for (long b = currentBucket + 1; b <= bucket; b++) {
+                int i = (int) (b % BUCKETS);
+                total -= counts[i];
+                counts[i] = 0L;
+            }
+        }
+        currentBucket = bucket;
+    }
+
+    /**
+     * @return the oldest bucket still counted which holds any logs.  Once that bucket falls out of the window,
+     * the window will have room again.
+     */
+    @GuardedBy("this")
+    private long oldestNonEmptyBucket(long bucket) {
+        for (long b = bucket - SUB_WINDOWS; b < bucket; b++) {
+            if (b >= 0 && counts[(int) (b % BUCKETS)] != 0) {
+                return b;
+            }
+        }
+        return bucket;
+    }
+}
@@ -0,0 +1,170 @@
+package com.swrve.ratelimitedlogger;
+
+import org.slf4j.Logger;
+
+import net.jcip.annotations.GuardedBy;
+import net.jcip.annotations.ThreadSafe;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collects the suppressions reported by all of one RateLimitedLog's patterns, and outputs them as a single summary
+ * once every period, rather than one log per pattern.  The summary lists the topK patterns with the most
+ * suppressed logs, and totals the rest, so its length is bounded however many patterns were suppressed.
+ *
+ * Each pattern reports its suppressions when it is reset, so they appear in the next summary, up to a period
+ * later.  A pattern which reports more than once in a period is merged into one entry if it is still among the
+ * topK; otherwise its reports are counted separately in the totals.
+ */
+@ThreadSafe
+class SuppressionSummary {
+    private static final long NOTHING_SUPPRESSED_YET = 0L;
+    private static final int NO_LEVEL = -1;
+
+    private final int topK;
+    private final Stopwatch stopwatch;
+    private final Logger logger;
+
+    /**
+     * The topK suppressed patterns reported in the current period, with the fewest suppressions at the head.
+     */
+    @GuardedBy("this")
+    private final PriorityQueue<Entry> top; // mutable
+
+    /**
+     * Totals of the suppressions reported in the current period, including those in top.
+     */
+    @GuardedBy("this")
+    private long totalSuppressed = 0L; // mutable
+    @GuardedBy("this")
+    private long totalPatterns = 0L; // mutable
+
+    /**
+     * The number of logs over the rate limits which were sampled, and let through, in the current period.
+     */
+    @GuardedBy("this")
+    private long totalSampled = 0L; // mutable
+
+    /**
+     * When the earliest of the suppressions reported in the current period began.
+     */
+    @GuardedBy("this")
+    private long suppressedSince = NOTHING_SUPPRESSED_YET; // mutable
+
+    /**
+     * The ordinal of the most severe Level reported in the current period, which the summary is logged at.
+     */
+    @GuardedBy("this")
+    private int mostSevereLevel = NO_LEVEL; // mutable
+
+    SuppressionSummary(int topK, Stopwatch stopwatch, Logger logger) {
+        this.topK = topK;
+        this.stopwatch = stopwatch;
+        this.logger = logger;
+        this.top = new PriorityQueue<>(topK, Comparator.comparingLong(entry -> entry.numSuppressed));
+    }
+
+    /**
+     * Record that @param numSuppressed logs of @param message at @param level were suppressed, and
+     * @param numSampled more were sampled, starting at @param since , in milliseconds on the Stopwatch.
+     */
+    synchronized void add(Level level, String message, long numSuppressed, long numSampled, long since) {
+        totalSuppressed += numSuppressed;
+        totalSampled += numSampled;
+        if (suppressedSince == NOTHING_SUPPRESSED_YET || since < suppressedSince) {
+            suppressedSince = since;
+        }
+        mostSevereLevel = Math.max(mostSevereLevel, level.ordinal());
+        if (numSuppressed == 0) {
+            return;     // everything over the limit was sampled; only the total is reported
+        }
+
+        for (Entry entry : top) {
+            if (entry.level == level && entry.message.equals(message)) {
+                top.remove(entry);
+                entry.numSuppressed += numSuppressed;
+                top.add(entry);
+                return;
+            }
+        }
+        totalPatterns++;
+        if (top.size() < topK) {
+            top.add(new Entry(level, message, numSuppressed));
+        } else if (top.peek().numSuppressed < numSuppressed) {
+            Entry evicted = top.poll();
+            evicted.set(level, message, numSuppressed);     // reuse it
+            top.add(evicted);
+        }
+    }
+
+    /**
+     * Output the summary of this period's suppressions, if there were any, and start a new period.  This is
+     * called once every period, by the Registry.
+     */
+    synchronized void periodicReset() {
+        if (mostSevereLevel == NO_LEVEL) {
+            return;
+        }
+        List<Entry> entries = new ArrayList<>(top);
+        entries.sort(Comparator.comparingLong((Entry entry) -> entry.numSuppressed).reversed());
+
+        StringBuilder details = new StringBuilder();
+        long listedSuppressed = 0L;
+        for (Entry entry : entries) {
+            if (details.length() > 0) {
+                details.append(", ");
+            }
+            details.append(entry.numSuppressed).append(" similar to '").append(entry.message).append("'");
+            if (entry.level.ordinal() != mostSevereLevel) {
+                details.append(" at ").append(entry.level.name());
+            }
+            listedSuppressed += entry.numSuppressed;
+        }
+        long otherPatterns = totalPatterns - entries.size();
+        if (otherPatterns > 0) {
+            details.append(", and ").append(totalSuppressed - listedSuppressed).append(" similar to ")
+                    .append(otherPatterns).append(" other patterns");
+        }
+
+        Duration howLong = Duration.ofMillis(elapsedMsecs()).minusMillis(suppressedSince);
+        Level mostSevere = Level.values()[mostSevereLevel];
+        if (totalSampled > 0) {
+            mostSevere.log(logger, "(suppressed {} logs of {} patterns, and sampled {} more, in {}: {})",
+                    totalSuppressed, totalPatterns, totalSampled, howLong, details);
+        } else {
+            mostSevere.log(logger, "(suppressed {} logs of {} patterns in {}: {})",
+                    totalSuppressed, totalPatterns, howLong, details);
+        }
+
+        top.clear();
+        totalSuppressed = 0L;
+        totalPatterns = 0L;
+        totalSampled = 0L;
+        suppressedSince = NOTHING_SUPPRESSED_YET;
+        mostSevereLevel = NO_LEVEL;
+    }
+
+    private long elapsedMsecs() {
+        return stopwatch.elapsedTime(TimeUnit.MILLISECONDS);
+    }
+
+    private static final class Entry {
+        private Level level; // mutable
+        private String message; // mutable
+        private long numSuppressed; // mutable
+
+        Entry(Level level, String message, long numSuppressed) {
+            set(level, message, numSuppressed);
+        }
+
+        void set(Level level, String message, long numSuppressed) {
+            this.level = level;
+            this.message = message;
+            this.numSuppressed = numSuppressed;
+        }
+    }
+}
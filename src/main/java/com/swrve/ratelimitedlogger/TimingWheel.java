@@ -0,0 +1,195 @@
+package com.swrve.ratelimitedlogger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import edu.umd.cs.findbugs.annotations.Nullable;
+import net.jcip.annotations.GuardedBy;
+import net.jcip.annotations.ThreadSafe;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A hashed timing wheel, which runs periodic tasks from a single ticker thread.
+ *
+ * Each task is kept in the slot of the wheel for the tick when it is next due; at every tick, the ticker only
+ * visits the tasks in one slot.  Since each task is due one period after it was registered, rather than all tasks
+ * with the same period being due at once, the work of running them is spread across ticks.  Tasks with periods
+ * longer than a revolution of the wheel are skipped over until they are due.
+ *
+ * Thread-safe.  Tasks may be scheduled and cancelled from any thread; they are handed to the ticker via a
+ * lock-free queue, and run on the ticker thread.
+ */
+@ThreadSafe
+class TimingWheel {
+    private static final Logger logger = LoggerFactory.getLogger(TimingWheel.class);
+
+    static final Duration DEFAULT_TICK = Duration.ofMillis(10);
+    static final int DEFAULT_SLOTS = 512;
+
+    private final long tickNanos;
+    private final String threadName;
+
+    /**
+     * The slots of the wheel.  Only accessed by the ticker.
+     */
+    private final List<List<Timeout>> wheel;
+
+    /**
+     * Newly-scheduled tasks, waiting for the ticker to add them to the wheel.
+     */
+    private final ConcurrentLinkedQueue<Timeout> pending = new ConcurrentLinkedQueue<>();
+
+    /**
+     * The number of ticks processed so far.  Only accessed by the ticker.
+     */
+    private long tick = 0L; // mutable
+
+    @GuardedBy("this")
+    private @Nullable Thread ticker = null; // mutable
+
+    TimingWheel(String threadName) {
+        this(threadName, DEFAULT_TICK, DEFAULT_SLOTS);
+    }
+
+    TimingWheel(String threadName, Duration tickDuration, int slots) {
+        this.threadName = threadName;
+        this.tickNanos = tickDuration.toNanos();
+        this.wheel = new ArrayList<>(slots);
+        for (int i = 0; i < slots; i++) {
+            wheel.add(new ArrayList<>());
+        }
+    }
+
+    /**
+     * Run @param task every @param period , starting one period from now, until the returned Timeout is
+     * cancelled.  Exceptions and Errors thrown by the task are logged, and it will still be run in the next period.
+     *
+     * The period is rounded up to a whole number of ticks, so that the task is never run early; a fixed window
+     * which was reset early would let more than its limit through in a period.
+     */
+    Timeout schedule(Runnable task, Duration period) {
+        long periodNanos = period.toNanos();
+        long periodTicks = (periodNanos + tickNanos - 1) / tickNanos;
+        Timeout timeout = new Timeout(task, Math.max(1L, periodTicks));
+        pending.add(timeout);
+        startTicker();
+        return timeout;
+    }
+
+    private synchronized void startTicker() {
+        if (ticker == null) {
+            Thread thread = new Thread(this::run, threadName);
+            thread.setDaemon(true);
+            thread.start();
+            ticker = thread;
+        }
+    }
+
+    private void run() {
+        long start = System.nanoTime();
+        while (!Thread.currentThread().isInterrupted()) {
+            long sleepNanos = start + (tick + 1) * tickNanos - System.nanoTime();
+            if (sleepNanos > 0) {
+                LockSupport.parkNanos(this, sleepNanos);
+                continue;
+            }
+            advance();
+        }
+    }
+
+    /**
+     * Process one tick: add any newly-scheduled tasks to the wheel, then run the tasks in the current slot which
+     * are due.  Only called by the ticker thread (or by tests standing in for it).
+     */
+    void advance() {
+        Timeout newTimeout;
+        while ((newTimeout = pending.poll()) != null) {
+            add(newTimeout);
+        }
+
+        int index = (int) (tick % wheel.size());
+        List<Timeout> slot = wheel.get(index);
+        // the tasks which stay in the slot; only copied once one leaves, since removing from an ArrayList one at a
+        // time would be quadratic in the size of the slot
+        List<Timeout> remaining = null;
+        List<Timeout> rescheduled = null;
+        for (int i = 0; i < slot.size(); i++) {
+            Timeout timeout = slot.get(i);
+            boolean due = !timeout.cancelled && timeout.deadlineTick <= tick;
+            if (timeout.cancelled || due) {
+                if (remaining == null) {
+                    remaining = new ArrayList<>(slot.subList(0, i));
+                }
+            } else if (remaining != null) {
+                remaining.add(timeout);
+            }
+            if (due) {
+                timeout.run();
+                if (rescheduled == null) {
+                    rescheduled = new ArrayList<>();
+                }
+                rescheduled.add(timeout);
+            }
+        }
+        if (remaining != null) {
+            wheel.set(index, remaining);
+        }
+        if (rescheduled != null) {
+            for (Timeout timeout : rescheduled) {
+                add(timeout);
+            }
+        }
+        tick++;
+    }
+
+    private void add(Timeout timeout) {
+        if (timeout.cancelled) {
+            return;
+        }
+        timeout.deadlineTick = tick + timeout.periodTicks;
+        wheel.get((int) (timeout.deadlineTick % wheel.size())).add(timeout);
+    }
+
+    /**
+     * A handle on a scheduled task, allowing it to be cancelled.
+     */
+    static final class Timeout {
+        private final Runnable task;
+        private final long periodTicks;
+        private long deadlineTick; // mutable, only accessed by the ticker
+        private volatile boolean cancelled = false; // mutable
+
+        private Timeout(Runnable task, long periodTicks) {
+            this.task = task;
+            this.periodTicks = periodTicks;
+        }
+
+        /**
+         * Stop running the task.  If it's currently running, that run will complete.
+         */
+        void cancel() {
+            cancelled = true;
+        }
+
+        /**
+         * Run the task, catching anything it throws, even an Error, so that it can't kill the ticker thread and
+         * stop every other task from running.
+         */
+        private void run() {
+            try {
+                task.run();
+            } catch (Throwable t) {
+                try {
+                    logger.warn("failed to run periodic task: " + t, t);
+                } catch (Throwable ignored) {
+                    // a reset may have failed because the appender did
+                }
+                // but carry on in the next iteration
+            }
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package com.swrve.ratelimitedlogger;
+
+import net.jcip.annotations.ThreadSafe;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A token bucket, implemented as a Generic Cell Rate Algorithm (GCRA): rather than storing a count of tokens
+ * which must be refilled in the background, we store the "theoretical arrival time" of the next log, and compute
+ * the available tokens lazily from the Stopwatch.  The bucket holds up to burstSize tokens, refilling at a steady
+ * maxRate per period.
+ *
+ * Thread-safe.  A suppressed log only reads the shared state; only logs which are let through write to it.
+ */
+@ThreadSafe
+final class TokenBucket implements RateLimiter {
+    private final long emissionIntervalNanos;
+    private final long burstToleranceNanos;
+    private final Stopwatch stopwatch;
+
+    /**
+     * The time, in nanos since the stopwatch started, at which the bucket will be full again.
+     */
+    private final AtomicLong theoreticalArrivalTime = new AtomicLong(0L); // mutable
+
+    TokenBucket(RateLimitedLogWithPattern.RateAndPeriod rateAndPeriod, Stopwatch stopwatch) {
+        this.emissionIntervalNanos = Math.max(1L, rateAndPeriod.periodLength.toNanos() / rateAndPeriod.maxRate);
+        this.burstToleranceNanos = emissionIntervalNanos * (rateAndPeriod.burstSize - 1);
+        this.stopwatch = stopwatch;
+    }
+
+    /**
+     * @return true, and take a token, if one is available; false if the bucket is empty.
+     */
+    @Override
+    public boolean tryAcquire() {
+        long now = stopwatch.elapsedTime(TimeUnit.NANOSECONDS);
+        while (true) {
+            long tat = theoreticalArrivalTime.get();
+            if (now < tat - burstToleranceNanos) {
+                return false;
+            }
+            long newTat = Math.max(tat, now) + emissionIntervalNanos;
+            if (theoreticalArrivalTime.compareAndSet(tat, newTat)) {
+                return true;
+            }
+        }
+    }
+}
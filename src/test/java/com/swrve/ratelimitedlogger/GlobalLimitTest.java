@@ -0,0 +1,97 @@
+package com.swrve.ratelimitedlogger;
+
+import org.junit.Test;
+
+import java.lang.reflect.Field;
+import java.time.Duration;
+import java.util.Map;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+public class GlobalLimitTest {
+
+    /**
+     * The global limit can only be configured once per JVM, so each test removes it again when it's done.
+     */
+    @SuppressWarnings("unchecked")
+    private static void clearGlobalLimit() throws ReflectiveOperationException {
+        Registry registry = RateLimitedLog.REGISTRY;
+        synchronized (registry) {
+            Field globalBudget = Registry.class.getDeclaredField("globalBudget");
+            globalBudget.setAccessible(true);
+            LogBudget budget = (LogBudget) globalBudget.get(registry);
+            if (budget == null) {
+                return;
+            }
+            Field budgets = Registry.class.getDeclaredField("budgets");
+            budgets.setAccessible(true);
+            TimingWheel.Timeout timeout = ((Map<?, TimingWheel.Timeout>) budgets.get(registry)).remove(budget);
+            if (timeout != null) {
+                timeout.cancel();
+            }
+            globalBudget.set(registry, null);
+        }
+    }
+
+    @Test
+    public void globalLimitAcrossLogs() throws ReflectiveOperationException {
+        MockLogger logger = new MockLogger();
+
+        RateLimitedLog rateLimitedLog = RateLimitedLog.withRateLimit(logger)
+                .maxRate(5).every(Duration.ofHours(1))
+                .build();
+        RateLimitedLog rateLimitedLog2 = RateLimitedLog.withRateLimit(logger)
+                .maxRate(5).every(Duration.ofHours(1))
+                .build();
+
+        RateLimitedLog.setGlobalLimit(4, Duration.ofHours(1));
+        try {
+            for (int i = 0; i < 3; i++) {
+                rateLimitedLog.info("globalLimitAcrossLogs {}", i);
+                rateLimitedLog2.info("globalLimitAcrossLogs2 {}", i);
+            }
+
+            // each log is within its own limit, but only 4 fit in the global limit
+            assertThat(logger.infoMessageCount, equalTo(4));
+
+            // it can only be configured once
+            try {
+                RateLimitedLog.setGlobalLimit(100, Duration.ofHours(1));
+                throw new AssertionError("expected IllegalStateException");
+            } catch (IllegalStateException expected) {
+                // ok
+            }
+        } finally {
+            clearGlobalLimit();
+        }
+
+        rateLimitedLog.info("globalLimitAcrossLogs {}", 4);
+        assertThat(logger.infoMessageCount, equalTo(5));
+    }
+
+    @Test
+    public void aggregateLimitIsNotUsedUpByGloballySuppressedLogs() throws ReflectiveOperationException {
+        MockLogger logger = new MockLogger();
+
+        RateLimitedLog rateLimitedLog = RateLimitedLog.withRateLimit(logger)
+                .maxRate(5).every(Duration.ofHours(1))
+                .withAggregateLimit(2)
+                .build();
+
+        RateLimitedLog.setGlobalLimit(1, Duration.ofHours(1));
+        try {
+            rateLimitedLog.info("aggregateLimitIsNotUsedUpByGloballySuppressedLogs 1");
+            rateLimitedLog.info("aggregateLimitIsNotUsedUpByGloballySuppressedLogs 2");
+            rateLimitedLog.info("aggregateLimitIsNotUsedUpByGloballySuppressedLogs 3");
+            assertThat(logger.infoMessageCount, equalTo(1));
+        } finally {
+            clearGlobalLimit();
+        }
+
+        // only one log has been emitted, so one more fits in the aggregate limit
+        rateLimitedLog.info("aggregateLimitIsNotUsedUpByGloballySuppressedLogs 4");
+        rateLimitedLog.info("aggregateLimitIsNotUsedUpByGloballySuppressedLogs 5");
+        assertThat(logger.infoMessageCount, equalTo(2));
+    }
+}
@@ -18,10 +18,11 @@ class MockLogger implements Logger {
     public int errorMessageCount;
     int traceMessageCount;
     String infoLastMessage;
+    volatile boolean debugEnabled = true;
 
     @Override
     public boolean isDebugEnabled() {
-        return true;
+        return debugEnabled;
     }
 
     @Override
@@ -32,12 +33,12 @@ class MockLogger implements Logger {
 
     @Override
     public void debug(String format, Object arg) {
-        throw new IllegalStateException("not supported");
+        debug(MessageFormatter.format(format, arg).getMessage());
     }
 
     @Override
     public void debug(String format, Object arg1, Object arg2) {
-        throw new IllegalStateException("not supported");
+        debug(MessageFormatter.format(format, arg1, arg2).getMessage());
     }
 
     @Override
@@ -93,12 +94,12 @@ class MockLogger implements Logger {
 
     @Override
     public void error(String format, Object arg) {
-        throw new IllegalStateException("not supported");
+        error(MessageFormatter.format(format, arg).getMessage());
     }
 
     @Override
     public void error(String format, Object arg1, Object arg2) {
-        throw new IllegalStateException("not supported");
+        error(MessageFormatter.format(format, arg1, arg2).getMessage());
     }
 
     @Override
@@ -155,12 +156,12 @@ class MockLogger implements Logger {
 
     @Override
     public void info(String format, Object arg) {
-        throw new IllegalStateException("not supported");
+        info(MessageFormatter.format(format, arg).getMessage());
     }
 
     @Override
     public void info(String format, Object arg1, Object arg2) {
-        throw new IllegalStateException("not supported");
+        info(MessageFormatter.format(format, arg1, arg2).getMessage());
     }
 
     @Override
@@ -221,12 +222,12 @@ class MockLogger implements Logger {
 
     @Override
     public void trace(String format, Object arg) {
-        throw new IllegalStateException("not supported");
+        trace(MessageFormatter.format(format, arg).getMessage());
     }
 
     @Override
     public void trace(String format, Object arg1, Object arg2) {
-        throw new IllegalStateException("not supported");
+        trace(MessageFormatter.format(format, arg1, arg2).getMessage());
     }
 
     @Override
@@ -282,7 +283,7 @@ class MockLogger implements Logger {
 
     @Override
     public void warn(String format, Object arg) {
-        throw new IllegalStateException("not supported");
+        warn(MessageFormatter.format(format, arg).getMessage());
     }
 
     @Override
@@ -292,7 +293,7 @@ class MockLogger implements Logger {
 
     @Override
     public void warn(String format, Object arg1, Object arg2) {
-        throw new IllegalStateException("not supported");
+        warn(MessageFormatter.format(format, arg1, arg2).getMessage());
     }
 
     @Override
@@ -0,0 +1,46 @@
+package com.swrve.ratelimitedlogger;
+
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+public class PatternNormaliserTest {
+
+    @Test
+    public void replacesVariableData() {
+        assertNormalised("failed for user 1234", "failed for user {}");
+        assertNormalised("failed for user 1234.", "failed for user {}.");
+        assertNormalised("took 1.5 seconds, -3 left", "took {} seconds, -{} left");
+        assertNormalised("id=0x1F3a, hash a1b2c3d4", "id={}, hash {}");
+        assertNormalised("request 123e4567-e89b-12d3-a456-426614174000 failed", "request {} failed");
+        assertNormalised("connecting to 10.0.0.1:8080 and fe80::1", "connecting to {} and {}");
+        assertNormalised("unknown key 'foo bar' in \"baz\"", "unknown key '{}' in \"{}\"");
+        assertNormalised("on 2018-01-31 at 12:34:56", "on {} at {}");
+    }
+
+    @Test
+    public void leavesWordsAlone() {
+        assertUnchanged("user1 missed the deadline");
+        assertUnchanged("can't add a bad cafe");
+        assertUnchanged("took 100ms");
+        assertUnchanged("an 'unclosed quote");
+        assertUnchanged("template {} with no data");
+        assertUnchanged("");
+    }
+
+    @Test
+    public void onlyNormalisesUpToMaxLength() {
+        assertThat(PatternNormaliser.normalise("user 1234 and 5678", 12), equalTo("user {} an"));
+        assertThat(PatternNormaliser.normalise("user 1234", 7), equalTo("user {}"));
+    }
+
+    private static void assertNormalised(String message, String expected) {
+        assertThat(PatternNormaliser.normalise(message, 100), equalTo(expected));
+    }
+
+    private static void assertUnchanged(String message) {
+        assertThat(PatternNormaliser.normalise(message, 100), sameInstance(message));
+    }
+}
@@ -1,13 +1,27 @@
 package com.swrve.ratelimitedlogger;
 
 import org.junit.Test;
+import org.slf4j.MDC;
 
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 
+import static org.hamcrest.CoreMatchers.containsString;
 import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.sameInstance;
 import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.startsWith;
 import static org.junit.Assert.assertThat;
 
 public class RateLimitedLogTest {
@@ -220,6 +234,42 @@ public class RateLimitedLogTest {
         assertThat(statsCalled.get(), equalTo(true));
     }
 
+    @Test
+    public void withMetricHandles() {
+        MockLogger logger = new MockLogger();
+        final AtomicLong mockTime = new AtomicLong(0L);
+        final AtomicLong handlesResolved = new AtomicLong(0L);
+        final AtomicLong handleIncrements = new AtomicLong(0L);
+
+        CounterMetric mockStats = new CounterMetric() {
+            @Override
+            public void increment(String metricName) {
+                throw new IllegalStateException("should have used a handle");
+            }
+
+            @Override
+            public Handle handle(String metricName) {
+                handlesResolved.incrementAndGet();
+                return handleIncrements::incrementAndGet;
+            }
+        };
+        RateLimitedLog rateLimitedLog = RateLimitedLog.withRateLimit(logger)
+                .maxRate(1).every(Duration.ofMillis(10))
+                .withStopwatch(createStopwatch(mockTime))
+                .recordMetrics(mockStats)
+                .build();
+
+        // one handle per level, resolved up front
+        assertThat(handlesResolved.get(), equalTo((long) Level.values().length));
+
+        rateLimitedLog.info("withMetricHandles");
+        rateLimitedLog.info("withMetricHandles");
+        rateLimitedLog.warn("withMetricHandles");
+
+        assertThat(handlesResolved.get(), equalTo((long) Level.values().length));
+        assertThat(handleIncrements.get(), equalTo(3L));
+    }
+
     @Test
     public void testGet() {
         MockLogger logger = new MockLogger();
@@ -299,6 +349,21 @@ public class RateLimitedLogTest {
         assertThat(logger.getInfoLastMessage().get(), equalTo("locale 10000"));
     }
 
+    // A message logged without arguments is passed to SLF4J as-is, not used as its own argument.
+    @Test
+    public void noArgumentsNotInterpolated() {
+        MockLogger logger = new MockLogger();
+        final AtomicLong mockTime = new AtomicLong(0L);
+
+        RateLimitedLog rateLimitedLog = RateLimitedLog.withRateLimit(logger)
+                .maxRate(1).every(Duration.ofMillis(10))
+                .withStopwatch(createStopwatch(mockTime))
+                .build();
+
+        rateLimitedLog.info("braces {}");
+        assertThat(logger.getInfoLastMessage().get(), equalTo("braces {}"));
+    }
+
     // Ensure that the out-of-cache-capacity logic doesn't lose data.
     @Test
     public void outOfCacheCapacity() {
@@ -315,8 +380,240 @@ public class RateLimitedLogTest {
             assertThat(logger.getInfoLastMessage().get(), equalTo("cache " + i)); // no loss
         }
 
-        // check that the cache was wiped once it filled up
+        // check that the cache is bounded
+        assertThat(rateLimitedLog.knownPatterns.size(), equalTo(RateLimitedLog.MAX_PATTERNS_PER_LOG));
+    }
+
+    // Ensure that patterns in use keep their rate-limiting state while one-off patterns are evicted.
+    @Test
+    public void evictsOneOffPatterns() {
+        MockLogger logger = new MockLogger();
+        final AtomicLong mockTime = new AtomicLong(0L);
+
+        RateLimitedLog rateLimitedLog = RateLimitedLog.withRateLimit(logger)
+                .maxRate(1).every(Duration.ofHours(1))
+                .withStopwatch(createStopwatch(mockTime))
+                .build();
+
+        rateLimitedLog.info("hot");
+        for (int i = 0; i < RateLimitedLog.MAX_PATTERNS_PER_LOG * 3; i++) {
+            rateLimitedLog.info("cache " + i);
+            rateLimitedLog.info("hot");
+        }
+        assertThat(logger.infoMessageCount, equalTo(1 + RateLimitedLog.MAX_PATTERNS_PER_LOG * 3));
+
+        // the hot pattern is still suppressed, rather than having been wiped along with the rest
+        rateLimitedLog.info("hot");
+        assertThat(logger.getInfoLastMessage().get(),
+                equalTo("cache " + (RateLimitedLog.MAX_PATTERNS_PER_LOG * 3 - 1)));
+        assertThat(rateLimitedLog.knownPatterns.size(), equalTo(RateLimitedLog.MAX_PATTERNS_PER_LOG));
+    }
+
+    // Ensure that patterns found by identity are not used once they've been evicted.
+    @Test
+    public void identityLookupAfterEviction() {
+        MockLogger logger = new MockLogger();
+        final AtomicLong mockTime = new AtomicLong(0L);
+
+        RateLimitedLog rateLimitedLog = RateLimitedLog.withRateLimit(logger)
+                .maxRate(1).every(Duration.ofHours(1))
+                .withStopwatch(createStopwatch(mockTime))
+                .build();
+
+        rateLimitedLog.info("literal");
+        rateLimitedLog.info("literal");
+        RateLimitedLogWithPattern evicted = rateLimitedLog.get("literal");
+        assertThat(rateLimitedLog.get("literal"), sameInstance(evicted));
+        for (int i = 0; i < RateLimitedLog.MAX_PATTERNS_PER_LOG * 2; i++) {
+            rateLimitedLog.info("cache " + i);
+        }
+
+        // the evicted pattern reported its suppression; a new one takes its place
+        rateLimitedLog.info("literal");
+        assertThat(logger.getInfoLastMessage().get(), equalTo("literal"));
+        assertThat(logger.infoMessageCount, equalTo(1 + RateLimitedLog.MAX_PATTERNS_PER_LOG * 2 + 1 + 1));
+        assertThat(rateLimitedLog.get("literal"), not(sameInstance(evicted)));
+    }
+
+    // Ensure that over-long messages are not held in the identity table, since they're unlikely to be literals.
+    @Test
+    public void longMessagesAreNotFoundByIdentity() {
+        MockLogger logger = new MockLogger();
+
+        RateLimitedLog rateLimitedLog = RateLimitedLog.withRateLimit(logger)
+                .maxRate(1).every(Duration.ofHours(1))
+                .build();
+
+        StringBuilder s = new StringBuilder();
+        while (s.length() < 10000) {
+            s.append("this message is far too long ");
+        }
+        String message = s.toString();
+        rateLimitedLog.info(message);
+        rateLimitedLog.info(message);
+        assertThat(rateLimitedLog.knownPatterns.getIdentical(message), nullValue());
+        assertThat(logger.infoMessageCount, equalTo(1));
+    }
+
+    // Ensure that a LogWithPatternAndLevel held by a caller keeps being reset after its pattern is evicted.
+    @Test
+    public void cachedLogsAreResetAfterEviction() {
+        MockLogger logger = new MockLogger();
+        final AtomicLong mockTime = new AtomicLong(0L);
+
+        RateLimitedLog rateLimitedLog = RateLimitedLog.withRateLimit(logger)
+                .maxRate(1).every(Duration.ofHours(1))
+                .withStopwatch(createStopwatch(mockTime))
+                .build();
+
+        LogWithPatternAndLevel cached = rateLimitedLog.get("cached", Level.INFO);
+        cached.log();
+        cached.log();
+        for (int i = 0; i < RateLimitedLog.MAX_PATTERNS_PER_LOG * 2; i++) {
+            rateLimitedLog.info("cache " + i);
+        }
+        assertThat(rateLimitedLog.get("cached", Level.INFO), not(sameInstance(cached)));
+
+        // using the evicted log logs through the one which took its place, so it's still reset, and its suppressions
+        // reported
+        cached.log();
+        cached.log();
+        int count = logger.infoMessageCount;
+        rateLimitedLog.scope.flush();
+        assertThat(logger.infoMessageCount, equalTo(count + 1));
+        assertThat(logger.getInfoLastMessage().get(), startsWith("(suppressed 1 logs similar to 'cached'"));
+    }
+
+    // Ensure that a LogWithPatternAndLevel held by a caller after its pattern is evicted shares the rate limit of the
+    // log which took its place, rather than being registered again alongside it.
+    @Test
+    public void cachedLogsShareTheLimitOfTheirReplacement() {
+        MockLogger logger = new MockLogger();
+        final AtomicLong mockTime = new AtomicLong(0L);
+
+        RateLimitedLog rateLimitedLog = RateLimitedLog.withRateLimit(logger)
+                .maxRate(1).every(Duration.ofHours(1))
+                .withStopwatch(createStopwatch(mockTime))
+                .build();
+
+        LogWithPatternAndLevel cached = rateLimitedLog.get("cached", Level.INFO);
+        for (int i = 0; i < RateLimitedLog.MAX_PATTERNS_PER_LOG * 2; i++) {
+            rateLimitedLog.info("cache " + i);
+        }
+        int count = logger.infoMessageCount;
+
+        cached.log();
+        rateLimitedLog.info("cached");
+        cached.log();
+        assertThat(logger.infoMessageCount, equalTo(count + 1));
+
+        // only the cached patterns' logs are registered
+        assertThat(rateLimitedLog.scope.size(), equalTo(rateLimitedLog.knownPatterns.size()));
+    }
+
+    // Ensure that closing a log reports its suppressions, and releases it from the registry.
+    @Test
+    public void close() {
+        MockLogger logger = new MockLogger();
+        final AtomicLong mockTime = new AtomicLong(0L);
+
+        int scopes = RateLimitedLog.REGISTRY.scopeCount();
+        RateLimitedLog rateLimitedLog = RateLimitedLog.withRateLimit(logger)
+                .maxRate(1).every(Duration.ofHours(1))
+                .withStopwatch(createStopwatch(mockTime))
+                .build();
+        assertThat(RateLimitedLog.REGISTRY.scopeCount(), equalTo(scopes + 1));
+
+        rateLimitedLog.info("closing");
+        rateLimitedLog.info("closing");
+        rateLimitedLog.close();
+        assertThat(logger.infoMessageCount, equalTo(2));
+        assertThat(logger.getInfoLastMessage().get(), startsWith("(suppressed 1 logs similar to 'closing'"));
+        assertThat(RateLimitedLog.REGISTRY.scopeCount(), equalTo(scopes));
+    }
+
+    // Ensure that handles are never evicted, so they keep being reset.
+    @Test
+    public void handlesArePinned() {
+        MockLogger logger = new MockLogger();
+        final AtomicLong mockTime = new AtomicLong(0L);
+
+        RateLimitedLog rateLimitedLog = RateLimitedLog.withRateLimit(logger)
+                .maxRate(1).every(Duration.ofHours(1))
+                .withStopwatch(createStopwatch(mockTime))
+                .build();
+
+        LogWithPatternAndLevel handle = rateLimitedLog.handle("pinned", Level.INFO);
+        handle.log();
+        handle.log();
+        for (int i = 0; i < RateLimitedLog.MAX_PATTERNS_PER_LOG * 3; i++) {
+            rateLimitedLog.info("cache " + i);
+        }
+
+        // the handle's pattern is still cached, and hasn't reported its suppression
+        assertThat(rateLimitedLog.get("pinned", Level.INFO), sameInstance(handle));
+        assertThat(logger.infoMessageCount, equalTo(1 + RateLimitedLog.MAX_PATTERNS_PER_LOG * 3));
+        assertThat(rateLimitedLog.knownPatterns.size(), equalTo(RateLimitedLog.MAX_PATTERNS_PER_LOG + 1));
+    }
+
+    // Ensure that one log running out of cache capacity doesn't affect other logs, even with the same patterns.
+    @Test
+    public void outOfCacheCapacityIsScopedToOneLog() {
+        MockLogger logger = new MockLogger();
+        MockLogger otherLogger = new MockLogger();
+        final AtomicLong mockTime = new AtomicLong(0L);
+
+        RateLimitedLog rateLimitedLog = RateLimitedLog.withRateLimit(logger)
+                .maxRate(1).every(Duration.ofHours(1))
+                .withStopwatch(createStopwatch(mockTime))
+                .build();
+        RateLimitedLog otherLog = RateLimitedLog.withRateLimit(otherLogger)
+                .maxRate(1).every(Duration.ofHours(1))
+                .withStopwatch(createStopwatch(mockTime))
+                .build();
+
+        for (int i = 0; i < 3; i++) {
+            rateLimitedLog.info("shared");
+            otherLog.info("shared");
+        }
+
+        // evict "shared" from the first log, which reports its suppressions
+        for (int i = 0; i < RateLimitedLog.MAX_PATTERNS_PER_LOG * 2; i++) {
+            rateLimitedLog.info("cache " + i);
+        }
+        assertThat(logger.infoMessageCount, equalTo(1 + RateLimitedLog.MAX_PATTERNS_PER_LOG * 2 + 1));
+
+        // the other log is untouched: still suppressed, with its suppressions yet to be reported
+        otherLog.info("shared");
+        assertThat(otherLogger.infoMessageCount, equalTo(1));
+        otherLog.scope.flush();
+        assertThat(otherLogger.infoMessageCount, equalTo(2));
+        assertThat(otherLogger.getInfoLastMessage().get(), startsWith("(suppressed 3 logs similar to 'shared'"));
+    }
+
+    // Ensure that accidentally-interpolated messages share a rate limit, but are still logged as they were.
+    @Test
+    public void normalisePatterns() {
+        MockLogger logger = new MockLogger();
+        final AtomicLong mockTime = new AtomicLong(0L);
+
+        RateLimitedLog rateLimitedLog = RateLimitedLog.withRateLimit(logger)
+                .maxRate(2).every(Duration.ofHours(1))
+                .normalisePatterns()
+                .withStopwatch(createStopwatch(mockTime))
+                .build();
+
+        for (int i = 0; i < RateLimitedLog.MAX_PATTERNS_PER_LOG * 2; i++) {
+            rateLimitedLog.info("failed for user " + i);
+        }
+        assertThat(logger.infoMessageCount, equalTo(2));
+        assertThat(logger.getInfoLastMessage().get(), equalTo("failed for user 1"));
         assertThat(rateLimitedLog.knownPatterns.size(), equalTo(1));
+
+        rateLimitedLog.get("failed for user {}", Level.INFO).periodicReset();
+        assertThat(logger.getInfoLastMessage().get(),
+                startsWith("(suppressed " + (RateLimitedLog.MAX_PATTERNS_PER_LOG * 2 - 2)
+                        + " logs similar to 'failed for user {}'"));
     }
 
     // Ensure that the out-of-cache-capacity logic doesn't lose data.
@@ -344,8 +641,894 @@ public class RateLimitedLogTest {
         assertThat(rateLimitedLog.knownPatterns.size(), equalTo(1));
     }
 
+    // Ensure that striped counters still produce exact suppression counts under contention.
+    @Test
+    public void stripedCounters() throws InterruptedException {
+        MockLogger logger = new MockLogger();
+
+        RateLimitedLog rateLimitedLog = RateLimitedLog.withRateLimit(logger)
+                .maxRate(5).every(Duration.ofHours(1))
+                .withStripedCounters()
+                .build();
+
+        ExecutorService exec = Executors.newFixedThreadPool(4);
+        for (int thread = 0; thread < 4; thread++) {
+            exec.submit(() -> {
+                for (int i = 0; i < 1000; i++) {
+                    rateLimitedLog.info("stripedCounters {}", i);
+                }
+            });
+        }
+        exec.shutdown();
+        exec.awaitTermination(60, TimeUnit.SECONDS);
+
+        rateLimitedLog.get("stripedCounters {}", Level.INFO).periodicReset();
+        assertThat(logger.getInfoLastMessage().get(),
+                startsWith("(suppressed 3995 logs similar to 'stripedCounters {}'"));
+    }
+
+    @Test
+    public void skipDisabledLevels() throws InterruptedException {
+        MockLogger logger = new MockLogger();
+        logger.debugEnabled = false;
+
+        RateLimitedLog rateLimitedLog = RateLimitedLog.withRateLimit(logger)
+                .maxRate(1).every(Duration.ofMillis(10))
+                .skipDisabledLevels(Duration.ofMillis(50))
+                .build();
+
+        rateLimitedLog.debug("skipDisabledLevels {}", 1);
+        rateLimitedLog.info("skipDisabledLevels {}", 2);
+
+        // the disabled debug log left no state behind
+        assertThat(logger.debugMessageCount, equalTo(0));
+        assertThat(logger.infoMessageCount, equalTo(1));
+        assertThat(rateLimitedLog.knownPatterns.size(), equalTo(1));
+
+        // once the level is enabled, and the filter refreshed, debug logs are emitted
+        logger.debugEnabled = true;
+        Thread.sleep(200L);
+        rateLimitedLog.debug("skipDisabledLevels {}", 3);
+        assertThat(logger.debugMessageCount, equalTo(1));
+    }
+
+    @Test
+    public void tokenBucket() {
+        MockLogger logger = new MockLogger();
+        final AtomicLong mockTime = new AtomicLong(0L);
+
+        RateLimitedLog rateLimitedLog = RateLimitedLog.withRateLimit(logger)
+                .maxRate(10).every(Duration.ofSeconds(1))
+                .withTokenBucket(3)
+                .withStopwatch(mockStopwatch(mockTime))
+                .build();
+
+        // a full bucket allows a burst of 3
+        for (int i = 0; i < 5; i++) {
+            rateLimitedLog.info("tokenBucket {}", i);
+        }
+        assertThat(logger.infoMessageCount, equalTo(3));
+
+        // one token refills every 100ms; the suppressions are reported before the next log is let through
+        mockTime.set(100L);
+        rateLimitedLog.info("tokenBucket {}", 5);
+        assertThat(logger.infoMessageCount, equalTo(5));
+        assertThat(logger.getInfoLastMessage().get(), equalTo("tokenBucket 5"));
+
+        mockTime.set(150L);
+        rateLimitedLog.info("tokenBucket {}", 6);
+        assertThat(logger.infoMessageCount, equalTo(5));
+
+        // after a quiet spell, the bucket is full again, but no fuller
+        mockTime.set(1000L);
+        for (int i = 7; i < 11; i++) {
+            rateLimitedLog.info("tokenBucket {}", i);
+        }
+        assertThat(logger.infoMessageCount, equalTo(5 + 1 + 3));
+    }
+
+    @Test
+    public void slidingWindow() {
+        MockLogger logger = new MockLogger();
+        final AtomicLong mockTime = new AtomicLong(0L);
+
+        RateLimitedLog rateLimitedLog = RateLimitedLog.withRateLimit(logger)
+                .maxRate(4).every(Duration.ofSeconds(1))
+                .withSlidingWindow()
+                .withStopwatch(mockStopwatch(mockTime))
+                .build();
+
+        rateLimitedLog.info("slidingWindow {}", 1);
+        rateLimitedLog.info("slidingWindow {}", 2);
+        mockTime.set(900L);
+        rateLimitedLog.info("slidingWindow {}", 3);
+        rateLimitedLog.info("slidingWindow {}", 4);
+        rateLimitedLog.info("slidingWindow {}", 5);
+        assertThat(logger.infoMessageCount, equalTo(4));
+
+        // a fixed window would have reset by now; the logs at 900ms still count
+        mockTime.set(1100L);
+        rateLimitedLog.info("slidingWindow {}", 6);
+        assertThat(logger.infoMessageCount, equalTo(4));
+
+        // the logs at 0ms have expired, so there's room for 2 more, preceded by the suppression report
+        mockTime.set(1250L);
+        rateLimitedLog.info("slidingWindow {}", 7);
+        rateLimitedLog.info("slidingWindow {}", 8);
+        rateLimitedLog.info("slidingWindow {}", 9);
+        assertThat(logger.infoMessageCount, equalTo(4 + 1 + 2));
+        assertThat(logger.getInfoLastMessage().get(), equalTo("slidingWindow 8"));
+    }
+
+    @Test
+    public void lazyReset() {
+        MockLogger logger = new MockLogger();
+        final AtomicLong mockTime = new AtomicLong(0L);
+
+        RateLimitedLog rateLimitedLog = RateLimitedLog.withRateLimit(logger)
+                .maxRate(2).every(Duration.ofSeconds(1))
+                .withLazyReset()
+                .withStopwatch(mockStopwatch(mockTime))
+                .build();
+
+        for (int i = 0; i < 5; i++) {
+            rateLimitedLog.info("lazyReset {}", i);
+        }
+        assertThat(logger.infoMessageCount, equalTo(2));
+
+        // nothing resets the window until it's next used
+        mockTime.set(1500L);
+        assertThat(logger.infoMessageCount, equalTo(2));
+
+        // the first log in the new window reports the suppressions first
+        rateLimitedLog.info("lazyReset {}", 5);
+        assertThat(logger.infoMessageCount, equalTo(2 + 1 + 1));
+        assertThat(logger.getInfoLastMessage().get(), equalTo("lazyReset 5"));
+        rateLimitedLog.info("lazyReset {}", 6);
+        rateLimitedLog.info("lazyReset {}", 7);
+        assertThat(logger.infoMessageCount, equalTo(2 + 1 + 2));
+        assertThat(logger.getInfoLastMessage().get(), equalTo("lazyReset 6"));
+    }
+
+    @Test
+    public void aggregateLimit() {
+        MockLogger logger = new MockLogger();
+        final AtomicLong mockTime = new AtomicLong(0L);
+
+        RateLimitedLog rateLimitedLog = RateLimitedLog.withRateLimit(logger)
+                .maxRate(2).every(Duration.ofHours(1))
+                .withAggregateLimit(3)
+                .withStopwatch(mockStopwatch(mockTime))
+                .build();
+
+        mockTime.set(1L);
+        for (int pattern = 0; pattern < 3; pattern++) {
+            for (int i = 0; i < 3; i++) {
+                rateLimitedLog.info("aggregateLimit " + pattern);
+            }
+        }
+
+        // 6 logs were within their per-pattern limits, but only 3 fit in the aggregate limit
+        assertThat(logger.infoMessageCount, equalTo(3));
+
+        // the per-pattern limit suppressed 1 log of each pattern...
+        rateLimitedLog.get("aggregateLimit 0", Level.INFO).periodicReset();
+        assertThat(logger.getInfoLastMessage().get(), startsWith("(suppressed 1 logs similar to 'aggregateLimit 0'"));
+
+        // ... and the aggregate limit suppressed 3 more
+        rateLimitedLog.budget.periodicReset();
+        assertThat(logger.getInfoLastMessage().get(), startsWith("(suppressed 3 logs in "));
+
+        // after the reset, there's room again
+        rateLimitedLog.info("aggregateLimit 3");
+        assertThat(logger.getInfoLastMessage().get(), equalTo("aggregateLimit 3"));
+    }
+
+    // Ensure that a RateLimitedLog's aggregate limit is flushed when it's closed.
+    @Test
+    public void aggregateLimitIsFlushedOnClose() {
+        MockLogger logger = new MockLogger();
+
+        RateLimitedLog rateLimitedLog = RateLimitedLog.withRateLimit(logger)
+                .maxRate(2).every(Duration.ofHours(1))
+                .withAggregateLimit(1)
+                .build();
+
+        rateLimitedLog.info("aggregateLimitIsFlushedOnClose 0");
+        rateLimitedLog.info("aggregateLimitIsFlushedOnClose 1");
+        assertThat(logger.infoMessageCount, equalTo(1));
+
+        rateLimitedLog.close();
+        assertThat(logger.getInfoLastMessage().get(), startsWith("(suppressed 1 logs in "));
+    }
+
+    // Ensure that a sampled log refused by the aggregate limit is reported as suppressed once, by its pattern.
+    @Test
+    public void aggregateLimitDoesNotCountSampledLogs() {
+        MockLogger logger = new MockLogger();
+        final AtomicLong mockTime = new AtomicLong(0L);
+
+        RateLimitedLog rateLimitedLog = RateLimitedLog.withRateLimit(logger)
+                .maxRate(1).every(Duration.ofHours(1))
+                .withAggregateLimit(1)
+                .sampleAfterLimit(2)
+                .withStopwatch(mockStopwatch(mockTime))
+                .build();
+
+        // the third log is sampled, but there's no room for it in the aggregate limit
+        mockTime.set(1L);
+        for (int i = 0; i < 3; i++) {
+            rateLimitedLog.info("aggregateLimitDoesNotCountSampledLogs");
+        }
+        assertThat(logger.infoMessageCount, equalTo(1));
+
+        rateLimitedLog.get("aggregateLimitDoesNotCountSampledLogs", Level.INFO).periodicReset();
+        assertThat(logger.infoMessageCount, equalTo(2));
+        assertThat(logger.getInfoLastMessage().get(), startsWith(
+                "(suppressed 2 logs similar to 'aggregateLimitDoesNotCountSampledLogs' in "));
+
+        rateLimitedLog.budget.periodicReset();
+        assertThat(logger.infoMessageCount, equalTo(2));
+    }
+
+    @Test
+    public void adaptToLatency() {
+        final AtomicLong mockTime = new AtomicLong(0L);
+        final AtomicLong latency = new AtomicLong(10L);
+        MockLogger logger = new MockLogger() {
+            @Override
+            public void info(String msg) {
+                mockTime.addAndGet(latency.get());
+                super.info(msg);
+            }
+        };
+
+        RateLimitedLog rateLimitedLog = RateLimitedLog.withRateLimit(logger)
+                .maxRate(10).every(Duration.ofHours(1))
+                .adaptToLatency(Duration.ofMillis(1))
+                .withStopwatch(mockStopwatch(mockTime))
+                .build();
+        LogWithPatternAndLevel line = rateLimitedLog.get("adaptToLatency {}", Level.INFO);
+
+        // the logger takes 10ms per call, so the limit is scaled right down
+        for (int i = 0; i < 20; i++) {
+            line.log(i);
+        }
+        assertThat(logger.infoMessageCount, equalTo(2));
+        line.periodicReset();
+        assertThat(logger.getInfoLastMessage().get(), startsWith("(suppressed 18 logs similar to 'adaptToLatency {}'"));
+
+        // once the logger speeds up, the limit recovers, over a few periods
+        latency.set(0L);
+        int logged = 0;
+        for (int period = 0; period < 50 && logged < 10; period++) {
+            int before = logger.infoMessageCount;
+            for (int i = 0; i < 20; i++) {
+                line.log(i);
+            }
+            logged = logger.infoMessageCount - before;
+            line.periodicReset();
+        }
+        assertThat(logged, equalTo(10));
+    }
+
+    @Test
+    public void limitPerKey() {
+        MockLogger logger = new MockLogger();
+
+        RateLimitedLog rateLimitedLog = RateLimitedLog.withRateLimit(logger)
+                .maxRate(1).every(Duration.ofHours(1))
+                .limitPerKey(0, 16)
+                .build();
+
+        // each tenant has its own limit
+        for (int i = 0; i < 16; i++) {
+            rateLimitedLog.info("tenant {} failed", "tenant" + i);
+            rateLimitedLog.info("tenant {} failed", "tenant" + i);
+        }
+        assertThat(logger.infoMessageCount, equalTo(16));
+        assertThat(logger.getInfoLastMessage().get(), equalTo("tenant tenant15 failed"));
+
+        // every tenant has been used recently, so new ones share the overflow limit
+        rateLimitedLog.info("tenant {} failed", "tenant16");
+        rateLimitedLog.info("tenant {} failed", "tenant17");
+        assertThat(logger.infoMessageCount, equalTo(17));
+        assertThat(logger.getInfoLastMessage().get(), equalTo("tenant tenant16 failed"));
+
+        rateLimitedLog.info("tenant {} failed", "tenant0");
+        assertThat(logger.infoMessageCount, equalTo(17));
+
+        // an explicit key
+        rateLimitedLog.get("tenant {} failed").forKey("tenant0").get(Level.INFO).periodicReset();
+        assertThat(logger.getInfoLastMessage().get(), startsWith(
+                "(suppressed 2 logs similar to 'tenant {} failed [tenant0]'"));
+    }
+
+    // Ensure that the keys of all of a RateLimitedLog's patterns are bounded in total.
+    @Test
+    public void limitPerKeyAcrossPatterns() {
+        MockLogger logger = new MockLogger();
+
+        RateLimitedLog rateLimitedLog = RateLimitedLog.withRateLimit(logger)
+                .maxRate(1).every(Duration.ofHours(1))
+                .limitPerKey(0, 10)
+                .build();
+
+        // the first 100 patterns use up the 1000 keys, so the rest only have their overflow limits
+        for (int p = 0; p < 110; p++) {
+            for (int k = 0; k < 10; k++) {
+                rateLimitedLog.info("limitPerKeyAcrossPatterns " + p + " {}", "key" + k);
+            }
+        }
+        assertThat(logger.infoMessageCount, equalTo(1000 + 10));
+
+        // evicting a pattern gives its keys back
+        rateLimitedLog.get("limitPerKeyAcrossPatterns 0 {}").unregister(() -> rateLimitedLog.get("evicted"));
+        rateLimitedLog.info("limitPerKeyAcrossPatterns 109 {}", "key0");
+        assertThat(logger.infoMessageCount, equalTo(1000 + 10 + 1));
+    }
+
+    // Ensure that a null varargs array, which SLF4J accepts, shares the pattern's own limit.
+    @Test
+    public void limitPerKeyWithNullArguments() {
+        MockLogger logger = new MockLogger();
+
+        RateLimitedLog rateLimitedLog = RateLimitedLog.withRateLimit(logger)
+                .maxRate(1).every(Duration.ofHours(1))
+                .limitPerKey(0, 16)
+                .build();
+
+        rateLimitedLog.info("tenant {} {} {} failed", (Object[]) null);
+        rateLimitedLog.info("tenant {} {} {} failed", (Object[]) null);
+        assertThat(logger.infoMessageCount, equalTo(1));
+        assertThat(logger.getInfoLastMessage().get(), equalTo("tenant {} {} {} failed"));
+    }
+
+    @Test
+    public void limitPerMdcKeys() {
+        MockLogger logger = new MockLogger();
+
+        RateLimitedLog rateLimitedLog = RateLimitedLog.withRateLimit(logger)
+                .maxRate(1).every(Duration.ofHours(1))
+                .limitPerMdcKeys("tenant", "route")
+                .build();
+
+        try {
+            // each tenant and route has its own limit, without changing the logging calls
+            for (String tenant : new String[]{"tenant0", "tenant1"}) {
+                MDC.put("tenant", tenant);
+                rateLimitedLog.info("request failed: {}", "timeout");
+                rateLimitedLog.info("request failed: {}", "timeout");
+            }
+            MDC.put("route", "/login");
+            rateLimitedLog.info("request failed: {}", "timeout");
+            assertThat(logger.infoMessageCount, equalTo(3));
+            assertThat(logger.getInfoLastMessage().get(), equalTo("request failed: timeout"));
+
+            // with neither set, the pattern's own limit applies
+            MDC.clear();
+            rateLimitedLog.info("request failed: {}", "timeout");
+            rateLimitedLog.info("request failed: {}", "timeout");
+            assertThat(logger.infoMessageCount, equalTo(4));
+
+            rateLimitedLog.get("request failed: {}").forKey(Arrays.asList("tenant0", null))
+                    .get(Level.INFO).periodicReset();
+            assertThat(logger.getInfoLastMessage().get(), startsWith(
+                    "(suppressed 1 logs similar to 'request failed: {} [[tenant0, null]]'"));
+        } finally {
+            MDC.clear();
+        }
+    }
+
+    @Test
+    public void limitPerMdcKeysIsExclusiveWithLimitPerKey() {
+        try {
+            RateLimitedLog.withRateLimit(new MockLogger())
+                    .maxRate(1).every(Duration.ofHours(1))
+                    .limitPerKey(0, 16)
+                    .limitPerMdcKeys("tenant")
+                    .build();
+            throw new AssertionError("expected IllegalArgumentException");
+        } catch (IllegalArgumentException expected) {
+            assertThat(expected.getMessage(), containsString("limitPerKey()"));
+        }
+    }
+
+    @Test
+    public void fingerprintExceptions() {
+        final List<String> errors = new ArrayList<>();
+        MockLogger logger = new MockLogger() {
+            @Override
+            public void error(String msg) {
+                errors.add(msg);
+            }
+
+            @Override
+            public void error(String msg, Throwable t) {
+                errors.add(msg + ": " + t.getClass().getSimpleName());
+            }
+        };
+
+        RateLimitedLog rateLimitedLog = RateLimitedLog.withRateLimit(logger)
+                .maxRate(1).every(Duration.ofHours(1))
+                .fingerprintExceptions(5)
+                .build();
+
+        // a storm of one exception doesn't hide another, even though they're logged with the same pattern
+        List<NullPointerException> storm = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            storm.add(newNullPointerException());
+        }
+        for (NullPointerException e : storm) {
+            rateLimitedLog.error("request failed", e);
+        }
+        for (int i = 0; i < 2; i++) {
+            rateLimitedLog.error("request failed", new IllegalStateException("wrapper", newIllegalArgumentException()));
+        }
+        assertThat(errors, equalTo(Arrays.asList(
+                "request failed: NullPointerException", "request failed: IllegalStateException")));
+
+        errors.clear();
+        rateLimitedLog.get("request failed").forThrowable(storm.get(0)).get(Level.ERROR).periodicReset();
+        assertThat(errors.size(), equalTo(1));
+        assertThat(errors.get(0), startsWith("(suppressed 4 logs similar to " +
+                "'request failed [java.lang.NullPointerException at com.swrve.ratelimitedlogger.RateLimitedLogTest" +
+                ".newNullPointerException("));
+    }
+
+    // Ensure that logging the same Throwable instance again finds the same fingerprinted pattern.
+    @Test
+    public void fingerprintSameThrowableAgain() {
+        MockLogger logger = new MockLogger();
+
+        RateLimitedLog rateLimitedLog = RateLimitedLog.withRateLimit(logger)
+                .maxRate(1).every(Duration.ofHours(1))
+                .fingerprintExceptions(5)
+                .build();
+
+        RateLimitedLogWithPattern pattern = rateLimitedLog.get("request failed");
+        List<NullPointerException> npes = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            npes.add(newNullPointerException());    // thrown from the same place, so with the same fingerprint
+        }
+        NullPointerException npe = npes.get(0);
+        IllegalArgumentException iae = newIllegalArgumentException();
+        RateLimitedLogWithPattern forNpe = pattern.forThrowable(npe);
+        RateLimitedLogWithPattern forIae = pattern.forThrowable(iae);
+        assertThat(forIae, not(sameInstance(forNpe)));
+        assertThat(pattern.forThrowable(iae), sameInstance(forIae));
+        assertThat(pattern.forThrowable(npe), sameInstance(forNpe));
+        assertThat(pattern.forThrowable(npe), sameInstance(forNpe));
+        assertThat(pattern.forThrowable(npes.get(1)), sameInstance(forNpe));
+    }
+
+    @Test
+    public void elideStackTraces() {
+        final List<String> errors = new ArrayList<>();
+        MockLogger logger = new MockLogger() {
+            @Override
+            public void error(String msg) {
+                errors.add(msg);
+            }
+
+            @Override
+            public void error(String msg, Throwable t) {
+                errors.add(msg + ": " + t.getClass().getSimpleName());
+            }
+        };
+
+        RateLimitedLog rateLimitedLog = RateLimitedLog.withRateLimit(logger)
+                .maxRate(10).every(Duration.ofHours(1))
+                .elideStackTraces(2)
+                .build();
+
+        NullPointerException e = new NullPointerException("oops");
+        for (int i = 0; i < 4; i++) {
+            rateLimitedLog.error("request {} failed", e);
+        }
+        assertThat(errors.size(), equalTo(4));
+        assertThat(errors.get(1), equalTo("request {} failed: NullPointerException"));
+        assertThat(errors.get(2), startsWith(
+                "request {} failed [java.lang.NullPointerException: oops; stack trace elided, fingerprint "));
+        assertThat(errors.get(3), equalTo(errors.get(2)));
+    }
+
+    private static NullPointerException newNullPointerException() {
+        return new NullPointerException();
+    }
+
+    private static IllegalArgumentException newIllegalArgumentException() {
+        return new IllegalArgumentException();
+    }
+
+    @Test
+    public void countMinSketch() {
+        MockLogger logger = new MockLogger();
+        final AtomicLong mockTime = new AtomicLong(1L);
+
+        RateLimitedLog rateLimitedLog = RateLimitedLog.withRateLimit(logger)
+                .maxRate(2).every(Duration.ofHours(1))
+                .withCountMinSketch(1024, 4)
+                .withStopwatch(mockStopwatch(mockTime))
+                .build();
+
+        for (int i = 0; i < 5; i++) {
+            rateLimitedLog.info("sketched a");
+        }
+        rateLimitedLog.info("sketched b");
+        assertThat(logger.infoMessageCount, equalTo(3));
+        assertThat(logger.getInfoLastMessage().get(), equalTo("sketched b"));
+
+        // however many distinct messages are logged, none are kept
+        for (int i = 0; i < 10000; i++) {
+            rateLimitedLog.info("sketched " + i);
+        }
+        assertThat(rateLimitedLog.knownPatterns.size(), equalTo(0));
+
+        mockTime.set(1001L);
+        int logged = logger.infoMessageCount;
+        rateLimitedLog.get("sketched a", Level.INFO).periodicReset();
+        assertThat(logger.infoMessageCount, equalTo(logged + 1));
+        assertThat(logger.getInfoLastMessage().get(), startsWith("(suppressed "));
+        assertThat(logger.getInfoLastMessage().get(), containsString(
+                " logs in PT1S, each exceeding the limit of 2 per PT1H for its pattern)"));
+    }
+
+    @Test
+    public void countMinSketchSeparatesEqualHashCodes() {
+        MockLogger logger = new MockLogger();
+
+        RateLimitedLog rateLimitedLog = RateLimitedLog.withRateLimit(logger)
+                .maxRate(1).every(Duration.ofHours(1))
+                .withCountMinSketch(1024, 4)
+                .build();
+
+        // "Aa" and "BB" have the same String.hashCode(), but are still counted separately
+        assertThat("collision Aa".hashCode(), equalTo("collision BB".hashCode()));
+        rateLimitedLog.info("collision Aa");
+        rateLimitedLog.info("collision BB");
+        assertThat(logger.infoMessageCount, equalTo(2));
+    }
+
+    @Test
+    public void countMinSketchHashesOnlyTheStartOfLongMessages() {
+        MockLogger logger = new MockLogger();
+
+        RateLimitedLog rateLimitedLog = RateLimitedLog.withRateLimit(logger)
+                .maxRate(1).every(Duration.ofHours(1))
+                .withCountMinSketch(1024, 4)
+                .build();
+
+        // like patterns, messages which differ only after the first 8192 characters are counted as one
+        char[] chars = new char[8192];
+        Arrays.fill(chars, 'x');
+        String prefix = new String(chars);
+        rateLimitedLog.info(prefix + " a");
+        rateLimitedLog.info(prefix + " b");
+        assertThat(logger.infoMessageCount, equalTo(1));
+        assertThat(logger.getInfoLastMessage().get(), equalTo(prefix + " a"));
+    }
+
+    @Test
+    public void summariseSuppressions() {
+        MockLogger logger = new MockLogger();
+        final AtomicLong mockTime = new AtomicLong(1L);
+
+        RateLimitedLog rateLimitedLog = RateLimitedLog.withRateLimit(logger)
+                .maxRate(1).every(Duration.ofHours(1))
+                .summariseSuppressions(2)
+                .withStopwatch(mockStopwatch(mockTime))
+                .build();
+
+        String[] patterns = {"summary a", "summary b", "summary c", "summary d"};
+        int[] counts = {5, 3, 2, 1};
+        for (int p = 0; p < patterns.length; p++) {
+            for (int i = 0; i < counts[p]; i++) {
+                rateLimitedLog.info(patterns[p]);
+            }
+        }
+        assertThat(logger.infoMessageCount, equalTo(4));
+
+        // the patterns' suppressions are collected, rather than logged
+        for (String pattern : patterns) {
+            rateLimitedLog.get(pattern, Level.INFO).periodicReset();
+        }
+        assertThat(logger.infoMessageCount, equalTo(4));
+
+        mockTime.set(1001L);
+        SuppressionSummary summary = Objects.requireNonNull(rateLimitedLog.scope.getSummary());
+        summary.periodicReset();
+        assertThat(logger.infoMessageCount, equalTo(5));
+        assertThat(logger.getInfoLastMessage().get(), equalTo("(suppressed 7 logs of 3 patterns in PT1S: " +
+                "4 similar to 'summary a', 2 similar to 'summary b', and 1 similar to 1 other patterns)"));
+
+        // nothing more to report
+        summary.periodicReset();
+        assertThat(logger.infoMessageCount, equalTo(5));
+
+        // closing the log outputs the summary of what's outstanding
+        rateLimitedLog.info("summary a");
+        rateLimitedLog.info("summary a");
+        rateLimitedLog.close();
+        assertThat(logger.infoMessageCount, equalTo(7));
+        assertThat(logger.getInfoLastMessage().get(), startsWith("(suppressed 1 logs of 1 patterns in "));
+    }
+
+    @Test
+    public void sampleAfterLimit() {
+        MockLogger logger = new MockLogger();
+        final AtomicLong mockTime = new AtomicLong(1L);
+
+        RateLimitedLog rateLimitedLog = RateLimitedLog.withRateLimit(logger)
+                .maxRate(2).every(Duration.ofHours(1))
+                .sampleAfterLimit(3)
+                .withStopwatch(mockStopwatch(mockTime))
+                .build();
+
+        // 2 within the limit, then every 3rd of the 9 over it
+        for (int i = 0; i < 11; i++) {
+            rateLimitedLog.info("sampled {}", i);
+        }
+        assertThat(logger.infoMessageCount, equalTo(5));
+        assertThat(logger.getInfoLastMessage().get(), equalTo("sampled 10 [sampled 1 in 3 over the rate limit]"));
+
+        mockTime.set(1001L);
+        rateLimitedLog.get("sampled {}", Level.INFO).periodicReset();
+        assertThat(logger.getInfoLastMessage().get(),
+                equalTo("(suppressed 6 logs similar to 'sampled {}' in PT1S, and sampled 3 more)"));
+    }
+
+    @Test
+    public void sampleAfterLimitRandomly() {
+        final AtomicInteger sampledCount = new AtomicInteger();
+        MockLogger logger = new MockLogger() {
+            @Override
+            public void info(String msg) {
+                if (msg.endsWith(" [sampled with probability 0.5 over the rate limit]")) {
+                    sampledCount.incrementAndGet();
+                }
+                super.info(msg);
+            }
+        };
+        final AtomicLong mockTime = new AtomicLong(1L);
+
+        RateLimitedLog rateLimitedLog = RateLimitedLog.withRateLimit(logger)
+                .maxRate(1).every(Duration.ofHours(1))
+                .sampleAfterLimitRandomly(0.5)
+                .summariseSuppressions(5)
+                .withStopwatch(mockStopwatch(mockTime))
+                .build();
+
+        for (int i = 0; i < 1001; i++) {
+            rateLimitedLog.info("randomly sampled");
+        }
+        assertThat(logger.infoMessageCount, equalTo(1 + sampledCount.get()));
+        assertThat(sampledCount.get() > 350 && sampledCount.get() < 650, equalTo(true));
+
+        // the summary accounts for the sampled logs separately
+        rateLimitedLog.get("randomly sampled", Level.INFO).periodicReset();
+        mockTime.set(1001L);
+        Objects.requireNonNull(rateLimitedLog.scope.getSummary()).periodicReset();
+        int suppressed = 1000 - sampledCount.get();
+        assertThat(logger.getInfoLastMessage().get(), equalTo("(suppressed " + suppressed + " logs of 1 patterns, " +
+                "and sampled " + sampledCount.get() + " more, in PT1S: " + suppressed +
+                " similar to 'randomly sampled')"));
+    }
+
+    @Test
+    public void asyncEmitterCountsDiscardedLogsAsSuppressed() throws InterruptedException {
+        final CountDownLatch emitting = new CountDownLatch(1);
+        final CountDownLatch unblock = new CountDownLatch(1);
+        final AtomicInteger emitted = new AtomicInteger(0);
+        MockLogger logger = new MockLogger() {
+            @Override
+            public void info(String msg) {
+                // the first log holds up the emitter's thread, as a slow appender would
+                emitting.countDown();
+                try {
+                    unblock.await();
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+                super.info(msg);
+                emitted.incrementAndGet();
+            }
+        };
+
+        RateLimitedLog rateLimitedLog = RateLimitedLog.withRateLimit(logger)
+                .maxRate(10).every(Duration.ofHours(1))
+                .withAsyncEmitter(new AsyncEmitter(2, AsyncEmitter.OverflowPolicy.DISCARD))
+                .build();
+        LogWithPatternAndLevel line = rateLimitedLog.get("asyncEmitter {}", Level.INFO);
+
+        line.log(0);
+        assertThat(emitting.await(10, TimeUnit.SECONDS), equalTo(true));
+
+        // the first log's slot is in use until it has been emitted, so the ring buffer has room for 1 more; the
+        // rest are discarded, without waiting for the logger
+        for (int i = 1; i < 10; i++) {
+            line.log(i);
+        }
+        unblock.countDown();
+        for (int i = 0; i < 1000 && emitted.get() < 2; i++) {
+            Thread.sleep(10L);
+        }
+        assertThat(emitted.get(), equalTo(2));
+        assertThat(logger.getInfoLastMessage().get(), equalTo("asyncEmitter 1"));
+
+        line.periodicReset();
+        assertThat(logger.getInfoLastMessage().get(), startsWith("(suppressed 8 logs similar to 'asyncEmitter {}'"));
+    }
+
+    // Ensure that a sampled log which the AsyncEmitter discards is counted as suppressed, and not as sampled.
+    @Test
+    public void asyncEmitterDiscardsSampledLog() throws InterruptedException {
+        final CountDownLatch emitting = new CountDownLatch(1);
+        final CountDownLatch unblock = new CountDownLatch(1);
+        final AtomicInteger emitted = new AtomicInteger(0);
+        MockLogger logger = new MockLogger() {
+            @Override
+            public void info(String msg) {
+                // the first log holds up the emitter's thread, as a slow appender would
+                emitting.countDown();
+                try {
+                    unblock.await();
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+                super.info(msg);
+                emitted.incrementAndGet();
+            }
+        };
+
+        RateLimitedLog rateLimitedLog = RateLimitedLog.withRateLimit(logger)
+                .maxRate(1).every(Duration.ofHours(1))
+                .sampleAfterLimit(2)
+                .withAsyncEmitter(new AsyncEmitter(2, AsyncEmitter.OverflowPolicy.DISCARD))
+                .build();
+        LogWithPatternAndLevel line = rateLimitedLog.get("asyncEmitterDiscardsSampledLog {}", Level.INFO);
+
+        line.log(0);
+        assertThat(emitting.await(10, TimeUnit.SECONDS), equalTo(true));
+
+        // 2 and 4 are sampled, but the ring buffer only has room for 2
+        for (int i = 1; i < 5; i++) {
+            line.log(i);
+        }
+        unblock.countDown();
+        for (int i = 0; i < 1000 && emitted.get() < 2; i++) {
+            Thread.sleep(10L);
+        }
+        assertThat(emitted.get(), equalTo(2));
+        assertThat(logger.getInfoLastMessage().get(),
+                equalTo("asyncEmitterDiscardsSampledLog 2 [sampled 1 in 2 over the rate limit]"));
+
+        line.periodicReset();
+        assertThat(logger.getInfoLastMessage().get(), startsWith(
+                "(suppressed 3 logs similar to 'asyncEmitterDiscardsSampledLog {}' in "));
+        assertThat(logger.getInfoLastMessage().get(), containsString(", and sampled 1 more)"));
+    }
+
+    // Ensure that logs waiting in an AsyncEmitter are output when the RateLimitedLog is closed, with their MDC.
+    @Test
+    public void asyncEmitterIsDrainedOnClose() {
+        final List<String> emitted = new ArrayList<>();
+        MockLogger logger = new MockLogger() {
+            @Override
+            public void info(String msg) {
+                synchronized (emitted) {
+                    emitted.add(msg + " for " + MDC.get("tenant"));
+                }
+            }
+        };
+
+        RateLimitedLog rateLimitedLog = RateLimitedLog.withRateLimit(logger)
+                .maxRate(100).every(Duration.ofHours(1))
+                .withAsyncEmitter(new AsyncEmitter(128, AsyncEmitter.OverflowPolicy.BLOCK))
+                .build();
+
+        MDC.put("tenant", "acme");
+        try {
+            for (int i = 0; i < 100; i++) {
+                rateLimitedLog.info("asyncEmitterIsDrainedOnClose {}", i);
+            }
+        } finally {
+            MDC.clear();
+        }
+        MDC.put("tenant", "closer");
+        try {
+            rateLimitedLog.close();
+
+            // all of them have been emitted by now, with the logging thread's MDC, whichever thread emitted them
+            synchronized (emitted) {
+                assertThat(emitted.size(), equalTo(100));
+                assertThat(emitted.get(99), equalTo("asyncEmitterIsDrainedOnClose 99 for acme"));
+            }
+            assertThat(MDC.get("tenant"), equalTo("closer"));
+        } finally {
+            MDC.clear();
+        }
+    }
+
+    // Ensure that an Error thrown by the appender doesn't stop the emitter's thread.
+    @Test
+    public void asyncEmitterSurvivesAppenderError() throws InterruptedException {
+        final AtomicInteger emitted = new AtomicInteger(0);
+        MockLogger logger = new MockLogger() {
+            @Override
+            public void info(String msg) {
+                if (msg.equals("asyncEmitterSurvivesAppenderError 0")) {
+                    throw new StackOverflowError();
+                }
+                emitted.incrementAndGet();
+            }
+        };
+
+        RateLimitedLog rateLimitedLog = RateLimitedLog.withRateLimit(logger)
+                .maxRate(100).every(Duration.ofHours(1))
+                .withAsyncEmitter(new AsyncEmitter(16, AsyncEmitter.OverflowPolicy.DISCARD))
+                .build();
+
+        for (int i = 0; i < 10; i++) {
+            rateLimitedLog.info("asyncEmitterSurvivesAppenderError {}", i);
+        }
+        for (int i = 0; i < 1000 && emitted.get() < 9; i++) {
+            Thread.sleep(10L);
+        }
+        assertThat(emitted.get(), equalTo(9));
+        rateLimitedLog.close();
+    }
+
+    // Ensure that closing a RateLimitedLog stops its emitter's thread.
+    @Test
+    public void asyncEmitterThreadStopsOnClose() {
+        int threads = emitterThreadCount();
+        RateLimitedLog rateLimitedLog = RateLimitedLog.withRateLimit(new MockLogger())
+                .maxRate(100).every(Duration.ofHours(1))
+                .withAsyncEmitter(new AsyncEmitter(16, AsyncEmitter.OverflowPolicy.BLOCK))
+                .build();
+
+        rateLimitedLog.info("asyncEmitterThreadStopsOnClose");
+        assertThat(emitterThreadCount(), equalTo(threads + 1));
+
+        rateLimitedLog.close();
+        assertThat(emitterThreadCount(), equalTo(threads));
+    }
+
+    private static int emitterThreadCount() {
+        int count = 0;
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.isAlive() && thread.getName().startsWith("RateLimitedLogEmitter-")) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Test
+    public void asyncEmitterCapacityMustBePowerOfTwo() {
+        try {
+            new AsyncEmitter(1000, AsyncEmitter.OverflowPolicy.BLOCK);
+            throw new AssertionError("expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            assertThat(e.getMessage(), equalTo("capacity must be a power of 2"));
+        }
+    }
+
     private Stopwatch createStopwatch(final AtomicLong mockTime) {
         return new Stopwatch(mockTime.get());
     }
 
+    /**
+     * @return a Stopwatch which reports @param mockTime as the number of milliseconds elapsed.
+     */
+    private Stopwatch mockStopwatch(final AtomicLong mockTime) {
+        return new Stopwatch() {
+            @Override
+            public long elapsedTime(TimeUnit timeUnit) {
+                return timeUnit.convert(mockTime.get(), TimeUnit.MILLISECONDS);
+            }
+        };
+    }
+
 }
@@ -0,0 +1,125 @@
+package com.swrve.ratelimitedlogger;
+
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+public class TimingWheelTest {
+
+    // ticks are an hour long, so the ticker thread never advances the wheel itself; the test does it instead
+    private static final Duration TICK = Duration.ofHours(1);
+
+    @Test
+    public void runsTasksEveryPeriod() {
+        TimingWheel wheel = new TimingWheel("runsTasksEveryPeriod", TICK, 4);
+        AtomicInteger runs = new AtomicInteger(0);
+        wheel.schedule(runs::incrementAndGet, TICK.multipliedBy(3));
+
+        advance(wheel, 3);
+        assertThat(runs.get(), equalTo(0));
+        advance(wheel, 1);
+        assertThat(runs.get(), equalTo(1));
+        advance(wheel, 3);
+        assertThat(runs.get(), equalTo(2));
+    }
+
+    @Test
+    public void periodsLongerThanTheWheel() {
+        TimingWheel wheel = new TimingWheel("periodsLongerThanTheWheel", TICK, 4);
+        AtomicInteger runs = new AtomicInteger(0);
+        wheel.schedule(runs::incrementAndGet, TICK.multipliedBy(10));
+
+        // the task's slot is visited twice before it is due
+        advance(wheel, 10);
+        assertThat(runs.get(), equalTo(0));
+        advance(wheel, 1);
+        assertThat(runs.get(), equalTo(1));
+        advance(wheel, 10);
+        assertThat(runs.get(), equalTo(2));
+    }
+
+    @Test
+    public void periodsAreRoundedUpToWholeTicks() {
+        TimingWheel wheel = new TimingWheel("periodsAreRoundedUpToWholeTicks", TICK, 4);
+        AtomicInteger runs = new AtomicInteger(0);
+        wheel.schedule(runs::incrementAndGet, TICK.plus(TICK.dividedBy(2)));
+
+        // never early: a period of 1.5 ticks is run every 2 ticks
+        advance(wheel, 2);
+        assertThat(runs.get(), equalTo(0));
+        advance(wheel, 1);
+        assertThat(runs.get(), equalTo(1));
+        advance(wheel, 2);
+        assertThat(runs.get(), equalTo(2));
+    }
+
+    @Test
+    public void cancellingManyTasksInOneSlot() {
+        TimingWheel wheel = new TimingWheel("cancellingManyTasksInOneSlot", TICK, 4);
+        AtomicInteger runs = new AtomicInteger(0);
+        TimingWheel.Timeout[] timeouts = new TimingWheel.Timeout[1000];
+        for (int i = 0; i < timeouts.length; i++) {
+            timeouts[i] = wheel.schedule(runs::incrementAndGet, TICK.multipliedBy(4));
+        }
+        for (int i = 0; i < timeouts.length; i += 2) {
+            timeouts[i].cancel();
+        }
+
+        advance(wheel, 5);
+        assertThat(runs.get(), equalTo(500));
+        advance(wheel, 4);
+        assertThat(runs.get(), equalTo(1000));
+    }
+
+    @Test
+    public void cancelledTasksStopRunning() {
+        TimingWheel wheel = new TimingWheel("cancelledTasksStopRunning", TICK, 4);
+        AtomicInteger runs = new AtomicInteger(0);
+        TimingWheel.Timeout timeout = wheel.schedule(runs::incrementAndGet, TICK);
+
+        advance(wheel, 2);
+        assertThat(runs.get(), equalTo(1));
+        timeout.cancel();
+        advance(wheel, 5);
+        assertThat(runs.get(), equalTo(1));
+    }
+
+    @Test
+    public void failingTasksKeepRunning() {
+        TimingWheel wheel = new TimingWheel("failingTasksKeepRunning", TICK, 4);
+        AtomicInteger runs = new AtomicInteger(0);
+        wheel.schedule(() -> {
+            runs.incrementAndGet();
+            throw new IllegalStateException("oops");
+        }, TICK);
+
+        advance(wheel, 4);
+        assertThat(runs.get(), equalTo(3));
+    }
+
+    @Test
+    public void tasksThrowingErrorsDontStopOtherTasks() {
+        TimingWheel wheel = new TimingWheel("tasksThrowingErrorsDontStopOtherTasks", TICK, 4);
+        AtomicInteger failures = new AtomicInteger(0);
+        AtomicInteger runs = new AtomicInteger(0);
+        wheel.schedule(() -> {
+            failures.incrementAndGet();
+            throw new StackOverflowError();
+        }, TICK);
+        wheel.schedule(runs::incrementAndGet, TICK);
+
+        advance(wheel, 4);
+        assertThat(failures.get(), equalTo(3));
+        assertThat(runs.get(), equalTo(3));
+    }
+
+    private static void advance(TimingWheel wheel, int ticks) {
+        for (int i = 0; i < ticks; i++) {
+            wheel.advance();
+        }
+    }
+}